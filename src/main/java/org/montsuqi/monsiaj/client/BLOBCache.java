@@ -0,0 +1,211 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.montsuqi.monsiaj.util.DiskCache;
+import org.montsuqi.monsiaj.util.SystemProperties;
+
+/**
+ * <p>
+ * A persistent cache of the BLOBs of Pixmap and PandaPreview widgets.
+ * Downloads and reports are never cached, so that no document the user
+ * downloaded is left on disk.</p>
+ * <p>
+ * BLOBs are kept under ~/.monsiaj/cache/blob per server URI, addressed by
+ * the SHA-256 of their content, so that the same image or document
+ * referenced by several oids is stored once. An index maps each oid to the
+ * digest and to the ETag the server returned for it.</p>
+ * <p>
+ * An oid does not change its content within a session, so a BLOB fetched in
+ * this session is served without a request. A BLOB cached by an earlier
+ * session is revalidated with a conditional GET(If-None-Match) when the
+ * server gave an ETag for it, and fetched again otherwise. Least recently
+ * used entries are evicted when the cache exceeds its size budget.</p>
+ * <p>
+ * System properties:</p>
+ * <ul>
+ * <li>monsia.disable_blob_cache: disables the cache.</li>
+ * <li>monsia.blob_cache.size_mb: the size budget(default 256MB).</li>
+ * <li>monsia.blob_cache.max_entry_mb: BLOBs larger than this are not
+ * cached(default 16MB).</li>
+ * </ul>
+ */
+public class BLOBCache {
+
+    private static final Logger logger = LogManager.getLogger(BLOBCache.class);
+    private static final File BLOB_CACHE_ROOT = new File(DiskCache.CACHE_ROOT, "blob");
+    private static final long DEFAULT_SIZE_MB = 256;
+    private static final long DEFAULT_MAX_ENTRY_MB = 16;
+    private static final String SEPARATOR = "\n";
+
+    private final DiskCache cache;
+    private final long maxEntryBytes;
+    /* oid -> digest of the BLOBs fetched or revalidated in this session */
+    private final Map<String, String> current;
+    private int hits;
+    private int revalidated;
+    private int misses;
+    private long bytesSaved;
+
+    private BLOBCache(DiskCache cache, long maxEntryBytes) {
+        this.cache = cache;
+        this.maxEntryBytes = maxEntryBytes;
+        this.current = new HashMap<>();
+        this.hits = 0;
+        this.revalidated = 0;
+        this.misses = 0;
+        this.bytesSaved = 0;
+    }
+
+    /**
+     * <p>
+     * Opens the cache for the server of the protocol.</p>
+     *
+     * @return the cache, or null if the cache is disabled.
+     */
+    public static BLOBCache open(Protocol protocol) {
+        if (System.getProperty("monsia.disable_blob_cache") != null) {
+            return null;
+        }
+        long sizeMB = SystemProperties.getLong("monsia.blob_cache.size_mb", DEFAULT_SIZE_MB);
+        long maxEntryMB = SystemProperties.getLong("monsia.blob_cache.max_entry_mb", DEFAULT_MAX_ENTRY_MB);
+        String server = DiskCache.digest(protocol.getAuthURI());
+        DiskCache cache = new DiskCache(BLOB_CACHE_ROOT, server, sizeMB * 1024 * 1024);
+        logger.info("blob cache:" + cache.getDirectory());
+        return new BLOBCache(cache, maxEntryMB * 1024 * 1024);
+    }
+
+    private static String indexKey(String oid) {
+        return "oid:" + oid;
+    }
+
+    private static String dataKey(String digest) {
+        return "data:" + digest;
+    }
+
+    long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * <p>
+     * Returns the BLOB if it was fetched in this session.</p>
+     *
+     * @return the data, or null if it must be requested.
+     */
+    public synchronized byte[] get(String oid) {
+        String digest = current.get(oid);
+        if (digest == null) {
+            return null;
+        }
+        byte[] data = cache.get(dataKey(digest));
+        if (data == null) {
+            current.remove(oid);
+            return null;
+        }
+        hits++;
+        bytesSaved += data.length;
+        return data;
+    }
+
+    /**
+     * <p>
+     * Returns the ETag of the BLOB cached by an earlier session, to be sent
+     * in If-None-Match.</p>
+     *
+     * @return the ETag, or null if the BLOB is not cached or has no ETag.
+     */
+    public synchronized String getETag(String oid) {
+        String[] entry = readIndex(oid);
+        if (entry == null || entry[0].isEmpty() || !cache.contains(dataKey(entry[1]))) {
+            return null;
+        }
+        return entry[0];
+    }
+
+    /**
+     * <p>
+     * Returns the cached BLOB after the server answered 304 Not Modified.</p>
+     *
+     * @return the data, or null if the entry was lost since getETag.
+     */
+    public synchronized byte[] revalidate(String oid) {
+        String[] entry = readIndex(oid);
+        if (entry == null) {
+            return null;
+        }
+        byte[] data = cache.get(dataKey(entry[1]));
+        if (data == null) {
+            cache.remove(indexKey(oid));
+            return null;
+        }
+        current.put(oid, entry[1]);
+        revalidated++;
+        bytesSaved += data.length;
+        return data;
+    }
+
+    /**
+     * <p>
+     * Stores a fetched BLOB.</p>
+     *
+     * @param data the content, or null if it was too large to be kept.
+     */
+    public synchronized void put(String oid, String etag, byte[] data) {
+        misses++;
+        if (data == null) {
+            return;
+        }
+        String digest = DiskCache.digest(data);
+        if (!cache.contains(dataKey(digest))) {
+            cache.put(dataKey(digest), data);
+        }
+        String index = (etag == null ? "" : etag) + SEPARATOR + digest;
+        cache.put(indexKey(oid), index.getBytes(StandardCharsets.UTF_8));
+        current.put(oid, digest);
+    }
+
+    private String[] readIndex(String oid) {
+        byte[] data = cache.get(indexKey(oid));
+        if (data == null) {
+            return null;
+        }
+        String[] entry = new String(data, StandardCharsets.UTF_8).split(SEPARATOR, 2);
+        if (entry.length != 2) {
+            cache.remove(indexKey(oid));
+            return null;
+        }
+        return entry;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "hit:" + hits + " revalidated:" + revalidated + " miss:" + misses + " bytes_saved:" + bytesSaved;
+    }
+}
@@ -0,0 +1,190 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.awt.Component;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.montsuqi.monsiaj.util.SystemProperties;
+import org.montsuqi.monsiaj.widgets.PandaDownload;
+import org.montsuqi.monsiaj.widgets.PandaPreview;
+import org.montsuqi.monsiaj.widgets.Pixmap;
+
+/**
+ * <p>
+ * Fetches the BLOBs referenced by a screen update before it is applied.</p>
+ * <p>
+ * The screen_data of the focused window is scanned for the objectdata
+ * of Pixmap, PandaPreview and PandaDownload widgets, and the BLOBs are
+ * fetched concurrently on a small pool while the send_event worker waits.
+ * A Pixmap whose screen_data is not changed since it was applied is skipped,
+ * as setWidget skips it. A window which is not built yet is not scanned,
+ * since its images can not be told from its downloads without the widgets.
+ * The BLOBs are downloaded into temporary files through RangedDownload, so
+ * that they are resumed and verified like any other file download, and
+ * Protocol.getBLOB serves the handlers from the files; applying the update
+ * costs no round trip on the event dispatch thread. The files are deleted
+ * after the update. A BLOB which failed to be fetched is left to the
+ * handler.</p>
+ * <p>
+ * System properties:</p>
+ * <ul>
+ * <li>monsia.blob_prefetch.threads: the number of concurrent fetches(default
+ * 4), 0 to disable.</li>
+ * </ul>
+ */
+public class BLOBPrefetcher {
+
+    private static final Logger logger = LogManager.getLogger(BLOBPrefetcher.class);
+    private static final int DEFAULT_THREADS = 4;
+
+    private final Protocol protocol;
+    private final UIControl uiControl;
+    private final ExecutorService executor;
+
+    private int fetched;
+    private long bytes;
+
+    private BLOBPrefetcher(Protocol protocol, UIControl uiControl, int threads) {
+        this.protocol = protocol;
+        this.uiControl = uiControl;
+        this.executor = Executors.newFixedThreadPool(threads, (Runnable r) -> {
+            Thread t = new Thread(r, "blob-prefetch");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * <p>
+     * Returns the prefetcher, or null when it is disabled.</p>
+     */
+    public static BLOBPrefetcher open(Protocol protocol, UIControl uiControl) {
+        int threads = SystemProperties.getInt("monsia.blob_prefetch.threads", DEFAULT_THREADS);
+        if (threads <= 0) {
+            return null;
+        }
+        return new BLOBPrefetcher(protocol, uiControl, threads);
+    }
+
+    /**
+     * <p>
+     * Fetches the BLOBs referenced by the window stack and waits for
+     * them.</p>
+     */
+    public void prefetch(JSONObject windowStack) throws JSONException {
+        fetched = 0;
+        bytes = 0;
+        JSONObject windowData = windowStack.getJSONObject("window_data");
+        String focusedWindow = windowData.getString("focused_window");
+        JSONArray windows = windowData.getJSONArray("windows");
+        /* oid -> whether it goes through the BLOB cache */
+        Map<String, Boolean> oids = new LinkedHashMap<>();
+        for (int i = 0; i < windows.length(); i++) {
+            JSONObject w = windows.getJSONObject(i);
+            String putType = w.getString("put_type");
+            String windowName = w.getString("window");
+            if (!windowName.equals(focusedWindow) || (!putType.equals("new") && !putType.equals("current"))) {
+                continue;
+            }
+            Node node = uiControl.getNode(windowName);
+            if (node == null) {
+                continue;
+            }
+            collect(node, windowName, w.getJSONObject("screen_data"), oids);
+        }
+        if (oids.isEmpty()) {
+            return;
+        }
+        List<Future<File>> futures = new ArrayList<>();
+        for (final Map.Entry<String, Boolean> e : oids.entrySet()) {
+            futures.add(executor.submit(() -> protocol.prefetchBLOB(e.getKey(), e.getValue())));
+        }
+        for (Future<File> future : futures) {
+            try {
+                File file = future.get();
+                if (file != null) {
+                    fetched++;
+                    bytes += file.length();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ex) {
+                logger.warn(ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the result of the last prefetch for the send_event log.</p>
+     */
+    public String getStats() {
+        return "blobs:" + fetched + " blob_bytes:" + bytes;
+    }
+
+    private void collect(Node node, String longName, JSONObject obj, Map<String, Boolean> oids) {
+        for (Iterator i = obj.keys(); i.hasNext();) {
+            String key = (String) i.next();
+            Object value = obj.opt(key);
+            if (value instanceof JSONObject) {
+                collect(node, longName + "." + key, (JSONObject) value, oids);
+            } else if (key.equals("objectdata") && value instanceof String) {
+                String oid = (String) value;
+                if (!oid.isEmpty() && !oid.equals("0") && needsBLOB(node, longName, obj)) {
+                    oids.merge(oid, isCached(node, longName), Boolean::logicalAnd);
+                }
+            }
+        }
+    }
+
+    /*
+     * Only the images of Pixmap and PandaPreview go through the BLOB cache.
+     */
+    private static boolean isCached(Node node, String longName) {
+        return !(node.getInterface().getWidgetByLongName(longName) instanceof PandaDownload);
+    }
+
+    private static boolean needsBLOB(Node node, String longName, JSONObject obj) {
+        Component widget = node.getInterface().getWidgetByLongName(longName);
+        if (widget instanceof Pixmap) {
+            WidgetBinding binding = node.getBinding(widget);
+            return binding == null || !binding.isUnchanged(obj);
+        }
+        return widget instanceof PandaPreview || widget instanceof PandaDownload;
+    }
+}
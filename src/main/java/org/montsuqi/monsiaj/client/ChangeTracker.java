@@ -0,0 +1,127 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.awt.Component;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * <p>
+ * Tracks the widgets changed by the user since the last event.</p>
+ * <p>
+ * Each change is recorded with the binding of the widget, which knows the
+ * path of keys from the window. The screen_data of an event is built from
+ * the changed widgets directly, instead of walking the whole template.</p>
+ */
+final class ChangeTracker {
+
+    private final Map<String, WidgetBinding> changed;
+
+    ChangeTracker() {
+        changed = new LinkedHashMap<>();
+    }
+
+    /**
+     * <p>
+     * Records the change of the widget.</p>
+     *
+     * @param binding the binding of the widget, or null if it is not bound.
+     */
+    void add(Component widget, WidgetBinding binding) {
+        changed.put(widget.getName(), binding);
+    }
+
+    boolean contains(String name) {
+        return changed.containsKey(name);
+    }
+
+    void clear() {
+        changed.clear();
+    }
+
+    private static JSONObject lookup(JSONObject obj, String[] path) {
+        for (String key : path) {
+            Object child = obj.opt(key);
+            if (!(child instanceof JSONObject)) {
+                return null;
+            }
+            obj = (JSONObject) child;
+        }
+        return obj;
+    }
+
+    /**
+     * <p>
+     * Builds screen_data of an event from the changed widgets of the window.
+     * Only the widgets whose path exists in the template are sent.</p>
+     *
+     * @return the screen_data, or null if nothing is changed.
+     */
+    JSONObject collect(UIControl con, Node node, JSONObject tmpl) throws JSONException {
+        List<WidgetBinding> targets = new ArrayList<>();
+        for (WidgetBinding b : changed.values()) {
+            if (b != null && b.getHandler() != null && node.getBinding(b.getWidget()) == b
+                    && lookup(tmpl, b.getPath()) != null) {
+                targets.add(b);
+            }
+        }
+        if (targets.isEmpty()) {
+            return null;
+        }
+        /* descendants first, as the widgets were visited in postorder */
+        targets.sort((a, b) -> b.getPath().length - a.getPath().length);
+        JSONObject ret = new JSONObject();
+        for (WidgetBinding b : targets) {
+            String[] path = b.getPath();
+            JSONObject data = lookup(ret, path);
+            if (data != null) {
+                b.getHandler().get(con, b.getWidget(), data);
+                continue;
+            }
+            data = new JSONObject();
+            b.getHandler().get(con, b.getWidget(), data);
+            if (data.length() <= 0) {
+                continue;
+            }
+            JSONObject parent = ret;
+            for (int i = 0; i < path.length - 1; i++) {
+                JSONObject child = parent.optJSONObject(path[i]);
+                if (child == null) {
+                    child = new JSONObject();
+                    parent.put(path[i], child);
+                }
+                parent = child;
+            }
+            parent.put(path[path.length - 1], data);
+        }
+        if (ret.length() <= 0) {
+            return null;
+        }
+        return ret;
+    }
+}
@@ -26,14 +26,24 @@ import org.montsuqi.monsiaj.util.Messages;
 import java.awt.event.ActionEvent;
 import java.io.*;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import javax.swing.JOptionPane;
+import javax.swing.SwingWorker;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -41,8 +51,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.montsuqi.monsiaj.monsia.Interface;
+import org.montsuqi.monsiaj.monsia.WidgetInfo;
 import org.montsuqi.monsiaj.util.GtkStockIcon;
 import org.montsuqi.monsiaj.util.PopupNotify;
+import org.montsuqi.monsiaj.util.SystemProperties;
 import org.montsuqi.monsiaj.widgets.ExceptionDialog;
 
 /**
@@ -51,7 +63,8 @@ import org.montsuqi.monsiaj.widgets.ExceptionDialog;
  */
 public class Client {
 
-    private boolean isReceiving;
+    private volatile boolean isReceiving;
+    private boolean isUpdatingScreen;
     private final Config conf;
     private static final Logger LOGGER = LogManager.getLogger(Client.class);
     private Protocol protocol;
@@ -63,6 +76,10 @@ public class Client {
     private String focusedWindow;
     private String focusedWidget;
     private PushReceiver pushReceiver;
+    private ScreenDefineCache screenDefineCache;
+    private final ExecutorService parseExecutor;
+    private WindowPrefetcher prefetcher;
+    private BLOBPrefetcher blobPrefetcher;
 
     public Client(Config conf) throws IOException {
         this.conf = conf;
@@ -73,7 +90,14 @@ public class Client {
         }
         uiControl = new UIControl(this, conf.getStyleURL(n), delay);
         isReceiving = false;
+        isUpdatingScreen = false;
         pushReceiver = null;
+        int threads = SystemProperties.getInt("monsia.parse_threads", Math.min(4, Runtime.getRuntime().availableProcessors()));
+        parseExecutor = Executors.newFixedThreadPool(Math.max(1, threads), (Runnable r) -> {
+            Thread t = new Thread(r, "screen-parser");
+            t.setDaemon(true);
+            return t;
+        });
     }
 
     void connect() throws IOException, GeneralSecurityException, JSONException {
@@ -148,8 +172,15 @@ public class Client {
             System.exit(1);
         }
         LOGGER.info("connected session_id:" + protocol.getSessionId());
+        screenDefineCache = ScreenDefineCache.open(protocol);
+        protocol.setBLOBCache(BLOBCache.open(protocol));
+        prefetcher = WindowPrefetcher.open(this, uiControl, parseExecutor, protocol.getAuthURI());
+        blobPrefetcher = BLOBPrefetcher.open(protocol, uiControl);
         startReceiving();
         windowStack = protocol.getWindow();
+        if (blobPrefetcher != null) {
+            blobPrefetcher.prefetch(windowStack);
+        }
         updateScreen();
         stopReceiving();
 
@@ -180,6 +211,13 @@ public class Client {
             protocol.endSession();
             pushReceiver.stop();
             LOGGER.info("disconnect session_id:" + protocol.getSessionId());
+            if (screenDefineCache != null) {
+                LOGGER.info("screen cache " + screenDefineCache);
+            }
+            if (prefetcher != null) {
+                prefetcher.save();
+                LOGGER.info("prefetch " + prefetcher);
+            }
         } catch (IOException | JSONException e) {
             LOGGER.warn(e, e);
         } finally {
@@ -202,10 +240,143 @@ public class Client {
     }
 
     public void updateScreen() throws JSONException, IOException {
+        updateScreen(loadScreenInterfaces(windowStack));
+    }
+
+    private String getScreenDefine(String windowName, boolean prefetch) throws JSONException, IOException {
+        if (screenDefineCache != null) {
+            return screenDefineCache.getScreenDefine(windowName, prefetch);
+        }
+        return prefetch ? protocol.prefetchScreenDefine(windowName) : protocol.getScreenDefine(windowName);
+    }
+
+    private Map<String, String> getScreenDefines(List<String> windowNames) throws JSONException, IOException {
+        if (screenDefineCache != null) {
+            return screenDefineCache.getScreenDefines(windowNames);
+        }
+        return protocol.getScreenDefines(windowNames);
+    }
+
+    /**
+     * <p>
+     * Loads the screen definitions of the windows in the window stack which
+     * are not built yet. Each definition is fetched and parsed into WidgetInfos
+     * on the parser threads, so several windows are parsed in parallel. This
+     * does not touch any widget and can be called off the event dispatch
+     * thread.</p>
+     * <p>
+     * If the server supports JSON-RPC batch requests, the definitions which
+     * are not compiled in the cache are fetched in one request first.</p>
+     * <p>
+     * System property monsia.parse_threads sets the number of the parser
+     * threads(default: the number of processors, up to 4).</p>
+     */
+    private Map<String, List<WidgetInfo>> loadScreenInterfaces(JSONObject stack) throws JSONException, IOException {
+        List<String> names = new ArrayList<>();
+        JSONArray windows = stack.getJSONObject("window_data").getJSONArray("windows");
+        for (int i = 0; i < windows.length(); i++) {
+            String windowName = windows.getJSONObject(i).getString("window");
+            if (uiControl.getNode(windowName) == null && !names.contains(windowName)) {
+                names.add(windowName);
+            }
+        }
+        Map<String, String> defines = new HashMap<>();
+        if (protocol.acceptsBatch()) {
+            List<String> fetchNames = new ArrayList<>();
+            for (String windowName : names) {
+                if (screenDefineCache == null || !screenDefineCache.hasCompiled(windowName)) {
+                    fetchNames.add(windowName);
+                }
+            }
+            if (fetchNames.size() > 1) {
+                defines = getScreenDefines(fetchNames);
+            }
+        }
+        List<Future<List<WidgetInfo>>> futures = new ArrayList<>();
+        for (final String windowName : names) {
+            final String gladeData = defines.get(windowName);
+            futures.add(parseExecutor.submit(() -> getWidgetInfo(windowName, gladeData, false)));
+        }
+        Map<String, List<WidgetInfo>> interfaces = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            try {
+                interfaces.put(names.get(i), futures.get(i).get());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof JSONException) {
+                    throw (JSONException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+        return interfaces;
+    }
+
+    /**
+     * <p>
+     * Returns the parsed screen definition of the window. The compiled form
+     * in the cache is used if any, otherwise the definition is parsed and
+     * compiled for the next time.</p>
+     */
+    List<WidgetInfo> getWidgetInfo(String windowName) throws JSONException, IOException {
+        return getWidgetInfo(windowName, null, false);
+    }
+
+    /**
+     * <p>
+     * Returns the parsed screen definition of the window like getWidgetInfo,
+     * fetching it on the background lane.</p>
+     */
+    List<WidgetInfo> prefetchWidgetInfo(String windowName) throws JSONException, IOException {
+        return getWidgetInfo(windowName, null, true);
+    }
+
+    private List<WidgetInfo> getWidgetInfo(String windowName, String gladeData, boolean prefetch) throws JSONException, IOException {
+        if (gladeData == null && screenDefineCache != null) {
+            List<WidgetInfo> roots = screenDefineCache.getCompiled(windowName);
+            if (roots != null) {
+                return roots;
+            }
+        }
+        if (gladeData == null) {
+            gladeData = getScreenDefine(windowName, prefetch);
+        }
+        List<WidgetInfo> roots = Interface.parseWidgetInfo(new ByteArrayInputStream(gladeData.getBytes(StandardCharsets.UTF_8)), false);
+        if (screenDefineCache != null) {
+            screenDefineCache.putCompiled(windowName, roots);
+        }
+        return roots;
+    }
+
+    private void updateScreen(Map<String, List<WidgetInfo>> interfaces) throws JSONException, IOException {
+        isUpdatingScreen = true;
+        try {
+            applyWindowStack(interfaces);
+            if (prefetcher != null) {
+                prefetcher.schedule(focusedWindow);
+            }
+        } finally {
+            isUpdatingScreen = false;
+            protocol.clearPrefetchedBLOBs();
+        }
+    }
+
+    private void applyWindowStack(Map<String, List<WidgetInfo>> interfaces) throws JSONException, IOException {
         JSONObject windowData = windowStack.getJSONObject("window_data");
+        String previousWindow = focusedWindow;
         focusedWindow = windowData.getString("focused_window");
         focusedWidget = windowData.getString("focused_widget");
         JSONArray windows = windowData.getJSONArray("windows");
+        if (prefetcher != null) {
+            prefetcher.recordTransition(previousWindow, focusedWindow);
+        }
 
         LOGGER.info("----");
         LOGGER.info("focused_window[" + focusedWindow + "]");
@@ -214,15 +385,16 @@ public class Client {
             JSONObject w = windows.getJSONObject(i);
             String putType = w.getString("put_type");
             String windowName = w.getString("window");
+            if (prefetcher != null) {
+                prefetcher.windowShown(windowName);
+            }
             Node node = uiControl.getNode(windowName);
             if (node == null) {
-                String gladeData = protocol.getScreenDefine(windowName);
-                try {
-                    node = new Node(Interface.parseInput(new ByteArrayInputStream(gladeData.getBytes("UTF-8")), uiControl), windowName);
-                } catch (UnsupportedEncodingException ex) {
-                    LOGGER.info(ex, ex);
-                    return;
+                List<WidgetInfo> roots = interfaces.get(windowName);
+                if (roots == null) {
+                    roots = getWidgetInfo(windowName);
                 }
+                node = new Node(new Interface(roots, uiControl), windowName);
                 uiControl.putNode(windowName, node);
             }
             LOGGER.info("show window[" + windowName + "] put_type[" + putType + "]");
@@ -249,12 +421,12 @@ public class Client {
                     tmpl = screenData;
                 }
             } else {
-                uiControl.updateScreenTemplate(tmpl, screenData);
+                uiControl.updateScreenTemplate(windowName, screenData);
             }
             if (putType.matches("new") || putType.matches("current")) {
                 Node node = uiControl.getNode(windowName);
                 if (windowName.equals(focusedWindow)) {
-                    uiControl.setWidget(node.getInterface(), node.getInterface().getWidgetByLongName(windowName), tmpl);
+                    uiControl.setWidget(node, tmpl);
                 }
                 uiControl.showWindow(windowName);
             }
@@ -262,63 +434,115 @@ public class Client {
         uiControl.setFocus(focusedWindow, focusedWidget);
     }
 
-    public void sendEvent(String windowName, String widgetName, String event) {
+    /**
+     * <p>
+     * Sends an event to the server.</p>
+     * <p>
+     * The event data is built on the calling thread(the event dispatch
+     * thread), the round trip and the decoding of the response run on a
+     * background worker, and the screen is updated back on the event dispatch
+     * thread. done is run on the event dispatch thread when everything is
+     * finished.</p>
+     */
+    public void sendEvent(final String windowName, final String widgetName, final String event, final Runnable done) {
+        final long t1 = System.currentTimeMillis();
+        if (prefetcher != null) {
+            prefetcher.cancel();
+        }
+        final JSONObject params;
         try {
-            JSONObject tmpl;
-            tmpl = (JSONObject) uiControl.getScreenTemplate(windowName);
-            if (tmpl != null) {
-
-                long t1 = System.currentTimeMillis();
-
-                Node node = uiControl.getNode(windowName);
-                if (node == null) {
-                    throw new IOException("invalid window:" + windowName);
-                }
-                Interface xml = node.getInterface();
-                JSONObject newScreenData = uiControl.updateScreenData(xml, xml.getWidgetByLongName(windowName), tmpl);
-                if (newScreenData == null) {
-                    newScreenData = new JSONObject();
-                }
-                uiControl.clearChangedWidget();
-                JSONObject eventData = new JSONObject();
-                eventData.put("window", windowName);
-                eventData.put("widget", widgetName);
-                eventData.put("event", event);
-                eventData.put("screen_data", newScreenData);
-                JSONObject params = new JSONObject();
-                params.put("event_data", eventData);
-
-                LOGGER.info("window:" + windowName + " widget:" + widgetName + " event:" + event);
-
-                long t2 = System.currentTimeMillis();
-
-                windowStack = protocol.sendEvent(params);
-                int total_exec_time = protocol.getTotalExecTime();
-                int app_exec_time = protocol.getAppExecTime();
-
-                long t3 = System.currentTimeMillis();
-
-                updateScreen();
-
-                long t4 = System.currentTimeMillis();
-
-                String msg = "[send_event] ";
-                msg += "total:" + (t4 - t1) + "ms ";
-                msg += "make_event_data:" + (t2 - t1) + "ms ";
-                msg += "rpc_total:" + (t3 - t2) + "ms ";
-                msg += "server_total:" + total_exec_time + "ms ";
-                msg += "server_app:" + app_exec_time + "ms ";
-                msg += "update_screen:" + (t4 - t3) + "ms";
-                LOGGER.info(msg);
+            JSONObject tmpl = (JSONObject) uiControl.getScreenTemplate(windowName);
+            if (tmpl == null) {
+                done.run();
+                return;
             }
+            Node node = uiControl.getNode(windowName);
+            if (node == null) {
+                throw new IOException("invalid window:" + windowName);
+            }
+            JSONObject newScreenData = uiControl.updateScreenData(node);
+            if (newScreenData == null) {
+                newScreenData = new JSONObject();
+            }
+            uiControl.clearChangedWidget();
+            JSONObject eventData = new JSONObject();
+            eventData.put("window", windowName);
+            eventData.put("widget", widgetName);
+            eventData.put("event", event);
+            eventData.put("screen_data", newScreenData);
+            params = new JSONObject();
+            params.put("event_data", eventData);
         } catch (JSONException | IOException ex) {
             ExceptionDialog.showExceptionDialog(ex);
             System.exit(1);
+            return;
         }
+
+        LOGGER.info("window:" + windowName + " widget:" + widgetName + " event:" + event);
+
+        final long t2 = System.currentTimeMillis();
+
+        new SwingWorker<JSONObject, Void>() {
+            private int totalExecTime;
+            private int appExecTime;
+            private long t3;
+            private long blobPrefetchTime;
+            private Map<String, List<WidgetInfo>> interfaces;
+
+            @Override
+            protected JSONObject doInBackground() throws IOException, JSONException {
+                JSONObject result = protocol.sendEvent(params);
+                totalExecTime = protocol.getTotalExecTime();
+                appExecTime = protocol.getAppExecTime();
+                t3 = System.currentTimeMillis();
+                interfaces = loadScreenInterfaces(result);
+                if (blobPrefetcher != null) {
+                    long st = System.currentTimeMillis();
+                    blobPrefetcher.prefetch(result);
+                    blobPrefetchTime = System.currentTimeMillis() - st;
+                }
+                return result;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    windowStack = get();
+                    long t4 = System.currentTimeMillis();
+
+                    updateScreen(interfaces);
+
+                    long t5 = System.currentTimeMillis();
+
+                    String msg = "[send_event] ";
+                    msg += "total:" + (t5 - t1) + "ms ";
+                    msg += "make_event_data:" + (t2 - t1) + "ms ";
+                    msg += "rpc_total:" + (t3 - t2) + "ms ";
+                    msg += "server_total:" + totalExecTime + "ms ";
+                    msg += "server_app:" + appExecTime + "ms ";
+                    msg += "get_screen_define:" + (t4 - t3 - blobPrefetchTime) + "ms ";
+                    if (blobPrefetcher != null) {
+                        msg += "blob_prefetch:" + blobPrefetchTime + "ms " + blobPrefetcher.getStats() + " ";
+                    }
+                    msg += "update_screen:" + (t5 - t4) + "ms ";
+                    msg += uiControl.takeSetWidgetStats();
+                    LOGGER.info(msg);
+                } catch (InterruptedException ex) {
+                    LOGGER.warn(ex, ex);
+                } catch (ExecutionException ex) {
+                    ExceptionDialog.showExceptionDialog(ex.getCause());
+                    System.exit(1);
+                } catch (JSONException | IOException ex) {
+                    ExceptionDialog.showExceptionDialog(ex);
+                    System.exit(1);
+                } finally {
+                    done.run();
+                }
+            }
+        }.execute();
     }
 
-    private void listDownloads() throws IOException, JSONException {
-        JSONArray array = protocol.listDownloads();
+    private void listDownloads(JSONArray array) throws IOException, JSONException {
         LOGGER.debug(array);
         for (int j = 0; j < array.length(); j++) {
             JSONObject item = array.getJSONObject(j);
@@ -337,8 +561,7 @@ public class Client {
         }
     }
 
-    private void getMessage() throws IOException, JSONException {
-        JSONObject result = protocol.getMessage();
+    private void getMessage(JSONObject result) throws IOException, JSONException {
         if (result.has("abort")) {
             String abort = result.getString("abort");
             if (!abort.isEmpty()) {
@@ -369,11 +592,14 @@ public class Client {
             if (!isReceiving()) {
                 startReceiving();
                 LOGGER.debug("sendPing");
-                if (!protocol.enablePushClient()) {
-                    listDownloads();
+                boolean doListDownloads = !protocol.enablePushClient();
+                boolean doGetMessage = !this.protocol.getServerType().equals("ginbee");
+                Object[] results = protocol.ping(doListDownloads, doGetMessage);
+                if (doListDownloads) {
+                    listDownloads((JSONArray) results[0]);
                 }
-                if (!this.protocol.getServerType().equals("ginbee")) {
-                    getMessage();
+                if (doGetMessage) {
+                    getMessage((JSONObject) results[1]);
                 }
                 stopReceiving();
             }
@@ -388,6 +614,15 @@ public class Client {
         return isReceiving;
     }
 
+    /**
+     * <p>
+     * Returns true while the window stack from the server is applied to the
+     * widgets. Widget changes made in this period are not user input.</p>
+     */
+    public boolean isUpdatingScreen() {
+        return isUpdatingScreen;
+    }
+
     public void startReceiving() {
         this.isReceiving = true;
     }
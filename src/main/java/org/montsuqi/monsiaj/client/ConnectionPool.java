@@ -0,0 +1,129 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.montsuqi.monsiaj.util.SystemProperties;
+
+/**
+ * <p>
+ * Keep-alive connection pool settings for HTTP(S) requests.</p>
+ * <p>
+ * HttpURLConnection keeps a socket (and its TLS session) in the JDK
+ * keep-alive cache only when the response body was read to the end and the
+ * connection was not disconnected. Callers hand connections back through
+ * release() instead of calling disconnect().</p>
+ * <ul>
+ * <li>monsia.http.disable_keepalive: close every connection after use.</li>
+ * <li>monsia.http.max_connections: idle connections kept per host
+ * (http.maxConnections).</li>
+ * <li>monsia.http.keepalive_timeout: seconds an idle connection is kept when
+ * the server does not send a Keep-Alive timeout
+ * (http.keepAlive.time.server/proxy).</li>
+ * </ul>
+ */
+public class ConnectionPool {
+
+    private static final Logger logger = LogManager.getLogger(ConnectionPool.class);
+    private static final int DEFAULT_MAX_CONNECTIONS = 5;
+    private static final int DEFAULT_KEEPALIVE_TIMEOUT = 30;
+    private static final int DRAIN_BUFFER_SIZE = 8192;
+    private static boolean configured = false;
+
+    private ConnectionPool() {
+    }
+
+    /**
+     * <p>
+     * Applies the pool settings to the JDK http properties.</p>
+     * <p>
+     * The JDK reads them once when the first connection is made, so this must
+     * be called before any request is sent.</p>
+     */
+    public static synchronized void configure() {
+        if (configured) {
+            return;
+        }
+        configured = true;
+        if (!isEnabled()) {
+            System.setProperty("http.keepAlive", "false");
+            logger.info("http keepalive: disabled");
+            return;
+        }
+        int maxConnections = SystemProperties.getInt("monsia.http.max_connections", DEFAULT_MAX_CONNECTIONS);
+        int timeout = SystemProperties.getInt("monsia.http.keepalive_timeout", DEFAULT_KEEPALIVE_TIMEOUT);
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", Integer.toString(maxConnections));
+        System.setProperty("http.keepAlive.time.server", Integer.toString(timeout));
+        System.setProperty("http.keepAlive.time.proxy", Integer.toString(timeout));
+        logger.info("http keepalive max_connections:" + maxConnections + " timeout:" + timeout + "s");
+    }
+
+    public static boolean isEnabled() {
+        return System.getProperty("monsia.http.disable_keepalive") == null;
+    }
+
+    /**
+     * <p>
+     * Finishes a request. The rest of the response body is drained so that
+     * the socket can be reused by the next request.</p>
+     *
+     * @param con the connection to release.
+     */
+    public static void release(HttpURLConnection con) {
+        if (!isEnabled()) {
+            con.disconnect();
+            return;
+        }
+        InputStream in;
+        try {
+            in = con.getInputStream();
+        } catch (IOException e) {
+            in = con.getErrorStream();
+        }
+        if (in == null) {
+            return;
+        }
+        try {
+            drain(in);
+        } catch (IOException e) {
+            // already consumed and closed by the caller
+            logger.debug(e);
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        try {
+            byte[] buf = new byte[DRAIN_BUFFER_SIZE];
+            while (in.read(buf) != -1) {
+                // discard
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
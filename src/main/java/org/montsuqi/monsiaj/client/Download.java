@@ -9,11 +9,8 @@ import java.awt.BorderLayout;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.event.ActionEvent;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import javax.print.PrintService;
@@ -111,8 +108,10 @@ public class Download {
                 } else {
                     file.deleteOnExit();
                 }
-                OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
-                protocol.getBLOB(oid, out);
+                int status = protocol.getBLOB(oid, file, true);
+                if (status != 200) {
+                    throw new IOException("cannot get blob " + oid + " status:" + status);
+                }
                 if (showdialog) {
                     showReportDialog(title, file);
                 } else {
@@ -168,8 +167,10 @@ public class Download {
             try {
                 File temp = TempFile.createTempFile("downloadfile", filename);
                 temp.deleteOnExit();
-                OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
-                protocol.getBLOB(oid, out);
+                int status = protocol.getBLOB(oid, temp, true);
+                if (status != 200) {
+                    throw new IOException("cannot get blob " + oid + " status:" + status);
+                }
                 PandaDownload pd = new PandaDownload();
                 pd.showDialog(filename, desc, temp);
             } catch (IOException ex) {
@@ -0,0 +1,192 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.awt.Component;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import javax.swing.text.JTextComponent;
+import org.montsuqi.monsiaj.client.widgethandlers.WidgetHandler;
+import org.montsuqi.monsiaj.util.SystemProperties;
+
+/**
+ * <p>
+ * An ordered journal of the input made while a send_event is in flight.</p>
+ * <p>
+ * Changed widgets and events are recorded in order and replayed against the
+ * refreshed screen. Consecutive edits of the same widget are collapsed into
+ * one entry which holds the latest text, along with the text the server had
+ * set before the edit, so that a field the response changes is left to the
+ * server.</p>
+ * <p>
+ * The journal is used on the event dispatch thread only.</p>
+ * <p>
+ * System property monsia.typeahead.depth sets the maximum number of entries
+ * (0 disables buffering).</p>
+ */
+public class InputJournal {
+
+    private static final int DEFAULT_DEPTH = 32;
+
+    static class Entry {
+
+        private final Component widget;
+        private final boolean event;
+        private final Object userData;
+        private final String serverText;
+        private String text;
+
+        private Entry(Component widget, boolean event, Object userData, String text) {
+            this.widget = widget;
+            this.event = event;
+            this.userData = userData;
+            this.serverText = WidgetHandler.getServerText(widget);
+            this.text = text;
+        }
+
+        Component getWidget() {
+            return widget;
+        }
+
+        boolean isEvent() {
+            return event;
+        }
+
+        Object getUserData() {
+            return userData;
+        }
+
+        String getText() {
+            return text;
+        }
+
+        /**
+         * <p>
+         * Returns true if the screen data set since the edit changed the
+         * text of the widget.</p>
+         */
+        boolean isOverridden() {
+            String now = WidgetHandler.getServerText(widget);
+            return now == null ? serverText != null : !now.equals(serverText);
+        }
+    }
+
+    private final Deque<Entry> entries;
+    private final int depth;
+    private long buffered;
+    private long collapsed;
+    private long replayed;
+    private long dropped;
+
+    public InputJournal() {
+        entries = new ArrayDeque<>();
+        depth = SystemProperties.getInt("monsia.typeahead.depth", DEFAULT_DEPTH);
+        buffered = 0;
+        collapsed = 0;
+        replayed = 0;
+        dropped = 0;
+    }
+
+    public boolean isEnabled() {
+        return depth > 0;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * <p>
+     * Records a changed widget.</p>
+     */
+    public void addChanged(Component widget) {
+        String text = null;
+        if (widget instanceof JTextComponent) {
+            text = ((JTextComponent) widget).getText();
+        }
+        Entry last = entries.peekLast();
+        if (last != null && !last.isEvent() && last.getWidget() == widget) {
+            last.text = text;
+            collapsed++;
+            return;
+        }
+        add(new Entry(widget, false, null, text));
+    }
+
+    /**
+     * <p>
+     * Records an event.</p>
+     */
+    public void addEvent(Component widget, Object userData) {
+        add(new Entry(widget, true, userData, null));
+    }
+
+    private void add(Entry entry) {
+        if (entries.size() >= depth) {
+            dropped++;
+            return;
+        }
+        entries.addLast(entry);
+        buffered++;
+    }
+
+    /**
+     * <p>
+     * Takes the oldest entry.</p>
+     *
+     * @return the entry, or null if the journal is empty.
+     */
+    Entry poll() {
+        Entry entry = entries.pollFirst();
+        if (entry != null) {
+            replayed++;
+        }
+        return entry;
+    }
+
+    public void clear() {
+        dropped += entries.size();
+        entries.clear();
+    }
+
+    public long getBuffered() {
+        return buffered;
+    }
+
+    public long getCollapsed() {
+        return collapsed;
+    }
+
+    public long getReplayed() {
+        return replayed;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    @Override
+    public String toString() {
+        return "buffered:" + buffered + " collapsed:" + collapsed + " replayed:" + replayed + " dropped:" + dropped + " pending:" + entries.size();
+    }
+}
@@ -25,6 +25,9 @@ package org.montsuqi.monsiaj.client;
 /**
  * <p>A class which manages a top-level window and its changed widgets.</p>
  */
+import java.awt.Component;
+import java.util.Collections;
+import java.util.Map;
 import org.montsuqi.monsiaj.monsia.Interface;
 import org.montsuqi.monsiaj.widgets.Window;
 
@@ -32,10 +35,14 @@ public class Node {
 
     private final Interface xml;
     private final String name;
+    private final WidgetBinding binding;
+    private final Map<Component, WidgetBinding> bindingTable;
 
     Node(Interface xml, String name) {
         this.xml = xml;
         this.name = name;
+        this.binding = WidgetBinding.build(xml, xml.getWidgetByLongName(name));
+        this.bindingTable = binding == null ? Collections.<Component, WidgetBinding>emptyMap() : binding.index();
     }
 
     String getName() {
@@ -46,6 +53,14 @@ public class Node {
         return xml;
     }
 
+    WidgetBinding getBinding() {
+        return binding;
+    }
+
+    WidgetBinding getBinding(Component widget) {
+        return bindingTable.get(widget);
+    }
+
     Window getWindow() {
         return (Window) xml.getWidget(name);
     }
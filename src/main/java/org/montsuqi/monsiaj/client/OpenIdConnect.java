@@ -181,7 +181,7 @@ public class OpenIdConnect {
         headerObj.put("Location", con.getHeaderField("Location"));
         result.put("header", headerObj);
 
-        con.disconnect();
+        ConnectionPool.release(con);
 
         return result;
     }
@@ -24,17 +24,29 @@ package org.montsuqi.monsiaj.client;
 
 import org.montsuqi.monsiaj.util.Messages;
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.Proxy;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSocketFactory;
 import javax.swing.JOptionPane;
@@ -43,11 +55,26 @@ import org.apache.logging.log4j.Logger;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.montsuqi.monsiaj.util.CountingInputStream;
+import org.montsuqi.monsiaj.util.StreamTransfer;
+import org.montsuqi.monsiaj.util.SystemProperties;
+import org.montsuqi.monsiaj.util.TempFile;
 
 /**
  * <p>
  * A class that implements high level operations over client/server
  * connection.</p>
+ * <p>
+ * Requests go through three lanes which do not block each other: the
+ * interactive lane(session, windows, screen definitions and send_event), the
+ * background lane(get_message, list_downloads, ping and the screen
+ * definitions prefetched while idle) and the BLOB lane(downloads of reports
+ * and files). end_session waits for the other lanes.</p>
+ * <p>
+ * The BLOBs of a screen update are interactive traffic and do not take the
+ * BLOB lane. Downloads on the BLOB lane are bulk traffic for the
+ * TransferScheduler, which holds them back while an interactive request is
+ * outstanding.</p>
  */
 public class Protocol {
 
@@ -60,7 +87,12 @@ public class Protocol {
 
     static final Logger logger = LogManager.getLogger(Protocol.class);
     // jsonrpc
-    private int rpcId;
+    private final Lane interactiveLane;
+    private final Lane backgroundLane;
+    private final Object blobLane;
+    private final TransferScheduler scheduler;
+    private final Map<String, File> prefetchedBLOBs;
+    private BLOBCache blobCache;
     private String sessionId;
     private String tenantId;
     private String groupId;
@@ -77,9 +109,10 @@ public class Protocol {
     private String applicationVersion;
     private String serverType;
     private boolean forceNoProxy;
-
-    private int totalExecTime;
-    private int appExecTime;
+    private boolean serverAcceptsGzip;
+    private boolean serverAcceptsBatch;
+    private final boolean useGzip;
+    private final int gzipRequestThreshold;
 
     private SSLSocketFactory sslSocketFactory;
     static final String PANDA_CLIENT_VERSION = "2.0.1";
@@ -95,27 +128,37 @@ public class Protocol {
     private static final String JAVA_VERSION = "Java_" + System.getProperty("java.version");
     private static final String MONSIAJ_VERSION = "monsiaj/" + Protocol.class.getPackage().getImplementationVersion();
     private static final String USER_AGENT = MONSIAJ_VERSION + " (" + OS_VERSION + "; " + JAVA_VERSION + ")";
+    private static final int DEFAULT_GZIP_REQUEST_THRESHOLD = 4096;
 
     private String caCert;
     private String certFile;
     private String certFilePassphrase;
 
-    private String openid_connect_rp_cookie = "";
+    /* sent once by whichever lane posts first, hence taken atomically */
+    private final AtomicReference<String> openid_connect_rp_cookie = new AtomicReference<>("");
 
     public Protocol(String authURI, final String user, final String pass, boolean useSSO) throws IOException, GeneralSecurityException {
-        this.rpcId = 1;
+        ConnectionPool.configure();
+        this.scheduler = new TransferScheduler();
+        this.prefetchedBLOBs = new ConcurrentHashMap<>();
+        this.blobCache = null;
+        this.interactiveLane = new Lane("interactive", TransferScheduler.INTERACTIVE);
+        this.backgroundLane = new Lane("background", TransferScheduler.BACKGROUND);
+        this.blobLane = new Object();
         this.authURI = authURI;
         this.user = user;
         this.password = pass;
         this.usePushClient = false;
         this.sslType = TYPE_NO_SSL;
-        this.totalExecTime = 0;
-        this.appExecTime = 0;
         this.tenantId = null;
         this.groupId = null;
         this.startupMessage = null;
         this.useSSO = useSSO;
         this.serverType = "";
+        this.serverAcceptsGzip = false;
+        this.serverAcceptsBatch = false;
+        this.useGzip = System.getProperty("monsia.http.disable_gzip") == null;
+        this.gzipRequestThreshold = SystemProperties.getInt("monsia.http.gzip_request_threshold", DEFAULT_GZIP_REQUEST_THRESHOLD);
         /* VPN経由のみNO_PROXYを設定する */
         if (authURI.contains("sms.orca.orcamo.jp") || authURI.contains("sms-stg.orca.orcamo.jp")) {
             forceNoProxy = true;
@@ -172,12 +215,16 @@ public class Protocol {
         return certFilePassphrase;
     }
 
+    /**
+     * <p>
+     * Returns the server time of the last call on the interactive lane.</p>
+     */
     public int getTotalExecTime() {
-        return totalExecTime;
+        return interactiveLane.getTotalExecTime();
     }
 
     public int getAppExecTime() {
-        return appExecTime;
+        return interactiveLane.getAppExecTime();
     }
 
     public SSLSocketFactory getSSLSocketFactory() {
@@ -237,69 +284,60 @@ public class Protocol {
         return forceNoProxy;
     }
 
-    private String makeJSONRPCRequest(String method, JSONObject params) throws JSONException {
-        JSONObject obj = new JSONObject();
-        obj.put("jsonrpc", "2.0");
-        obj.put("id", rpcId);
-        obj.put("method", method);
-        obj.put("params", params);
-        rpcId += 1;
-        return obj.toString();
-    }
-
-    private Object checkJSONRPCResponse(String jsonStr) throws JSONException {
-        totalExecTime = 0;
-        appExecTime = 0;
-
-        JSONObject obj = new JSONObject(jsonStr);
-        if (!obj.getString("jsonrpc").matches("2.0")) {
-            throw new JSONException("invalid jsonrpc version");
-        }
-        int id = obj.getInt("id");
-        if (id != (this.rpcId - 1)) {
-            throw new JSONException("invalid jsonrpc id:" + id + " expected:" + (this.rpcId - 1));
-        }
-        if (obj.has("error")) {
-            JSONObject objError = obj.getJSONObject("error");
-            int code = objError.getInt("code");
-            String message = objError.getString("message");
-            throw new JSONException("jsonrpc error code:" + code + " message:" + message);
-        }
-        if (!obj.has("result")) {
-            throw new JSONException("no result object");
-        }
-        Object result = obj.get("result");
-        if (result instanceof JSONObject) {
-            JSONObject res = (JSONObject) result;
-            if (res.has("meta")) {
-                JSONObject meta = (JSONObject) ((JSONObject) result).getJSONObject("meta");
-                if (meta.has("total_exec_time")) {
-                    totalExecTime = meta.getInt("total_exec_time");
-                }
-                if (meta.has("app_exec_time")) {
-                    appExecTime = meta.getInt("app_exec_time");
-                }
-            }
+    private static InputStream getResponseStream(HttpURLConnection con) {
+        try {
+            return con.getInputStream();
+        } catch (IOException e) {
+            return con.getErrorStream();
+        }
+    }
+
+    /**
+     * <p>
+     * Wraps the raw response stream with a decoder for its
+     * Content-Encoding.</p>
+     */
+    private static InputStream decodeContent(HttpURLConnection con, InputStream in) throws IOException {
+        String encoding = con.getContentEncoding();
+        if (encoding == null) {
+            return in;
+        }
+        switch (encoding.trim().toLowerCase()) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(in);
+            case "deflate":
+                return new InflaterInputStream(in, new Inflater(!isZlibWrapped(in)));
+            default:
+                return in;
         }
-        return result;
+    }
+
+    /* some servers send raw deflate data without the zlib header */
+    private static boolean isZlibWrapped(InputStream in) throws IOException {
+        if (!in.markSupported()) {
+            return true;
+        }
+        in.mark(2);
+        int b0 = in.read();
+        int b1 = in.read();
+        in.reset();
+        if (b0 == -1 || b1 == -1) {
+            return true;
+        }
+        return (b0 & 0x0f) == 8 && ((b0 << 8) | b1) % 31 == 0;
     }
 
     public static ByteArrayOutputStream getHTTPBody(HttpURLConnection con) {
-        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream()) {
-            try (BufferedOutputStream bos = new BufferedOutputStream(bytes)) {
-                InputStream stream;
-                try {
-                    stream = con.getInputStream();
-                } catch (IOException e) {
-                    stream = con.getErrorStream();
-                }
-                BufferedInputStream bis = new BufferedInputStream(stream);
-                int length;
-                while ((length = bis.read()) != -1) {
-                    bos.write(length);
-                }
-            }
-            return bytes;
+        return getHTTPBody(con, getResponseStream(con));
+    }
+
+    private static ByteArrayOutputStream getHTTPBody(HttpURLConnection con, InputStream stream) {
+        if (stream == null) {
+            return new ByteArrayOutputStream();
+        }
+        try (InputStream in = decodeContent(con, new BufferedInputStream(stream))) {
+            return StreamTransfer.readAll(in, con.getContentLengthLong());
         } catch (IOException ex) {
             return new ByteArrayOutputStream();
         }
@@ -319,9 +357,202 @@ public class Protocol {
         logger.debug("set Auth header");
     }
 
-    private synchronized Object jsonRPC(String url, String method, JSONObject params) throws JSONException, IOException {
+    /**
+     * <p>
+     * A JSON-RPC lane. Calls on a lane are serialized and numbered by the
+     * lane's own id counter, while calls on different lanes run concurrently,
+     * each over its own keep-alive connection.</p>
+     */
+    private final class Lane {
+
+        private final String name;
+        private final int trafficClass;
+        private int rpcId;
+        private int totalExecTime;
+        private int appExecTime;
+        private long queueWait;
+
+        Lane(String name, int trafficClass) {
+            this.name = name;
+            this.trafficClass = trafficClass;
+            this.rpcId = 1;
+            this.queueWait = 0;
+            this.totalExecTime = 0;
+            this.appExecTime = 0;
+        }
+
+        synchronized int getTotalExecTime() {
+            return totalExecTime;
+        }
+
+        synchronized int getAppExecTime() {
+            return appExecTime;
+        }
+
+        Object call(String url, String method, JSONObject params) throws JSONException, IOException {
+            long st = begin();
+            try {
+                synchronized (this) {
+                    queued(st);
+                    return send(url, method, params);
+                }
+            } finally {
+                end();
+            }
+        }
+
+        private Object send(String url, String method, JSONObject params) throws JSONException, IOException {
+            String reqStr = makeJSONRPCObject(method, params).toString();
+            return checkJSONRPCResponse(postJSONRPC(url, method, this, reqStr));
+        }
+
+        private long begin() {
+            if (trafficClass == TransferScheduler.INTERACTIVE) {
+                scheduler.beginInteractive();
+            }
+            return System.nanoTime();
+        }
+
+        private void queued(long st) {
+            long waited = System.nanoTime() - st;
+            queueWait = waited / 1000000L;
+            scheduler.recordWait(trafficClass, waited);
+        }
+
+        private void end() {
+            if (trafficClass == TransferScheduler.INTERACTIVE) {
+                scheduler.endInteractive();
+            }
+        }
+
+        /**
+         * <p>
+         * Calls the methods in one JSON-RPC batch request. If the server does
+         * not support batch requests, the methods are called one by one.</p>
+         *
+         * @return the results in the order of the methods.
+         */
+        Object[] batch(String url, List<String> methods, List<JSONObject> params) throws JSONException, IOException {
+            long st = begin();
+            try {
+                synchronized (this) {
+                    queued(st);
+                    return sendBatch(url, methods, params);
+                }
+            } finally {
+                end();
+            }
+        }
+
+        private Object[] sendBatch(String url, List<String> methods, List<JSONObject> params) throws JSONException, IOException {
+            Object[] results = new Object[methods.size()];
+            if (!acceptsBatch() || methods.size() < 2) {
+                int totalTime = 0;
+                int appTime = 0;
+                for (int i = 0; i < methods.size(); i++) {
+                    results[i] = send(url, methods.get(i), params.get(i));
+                    totalTime += totalExecTime;
+                    appTime += appExecTime;
+                }
+                totalExecTime = totalTime;
+                appExecTime = appTime;
+                return results;
+            }
+            int firstId = rpcId;
+            JSONArray batch = new JSONArray();
+            for (int i = 0; i < methods.size(); i++) {
+                batch.put(makeJSONRPCObject(methods.get(i), params.get(i)));
+            }
+            String label = "batch" + methods;
+            return checkJSONRPCBatchResponse(postJSONRPC(url, label, this, batch.toString()), firstId, methods.size());
+        }
+
+        private JSONObject makeJSONRPCObject(String method, JSONObject params) throws JSONException {
+            JSONObject obj = new JSONObject();
+            obj.put("jsonrpc", "2.0");
+            obj.put("id", rpcId);
+            obj.put("method", method);
+            obj.put("params", params);
+            rpcId += 1;
+            return obj;
+        }
+
+        private Object checkJSONRPCResponse(String jsonStr) throws JSONException {
+            totalExecTime = 0;
+            appExecTime = 0;
+
+            return checkJSONRPCResult(new JSONObject(jsonStr), this.rpcId - 1);
+        }
+
+        /**
+         * <p>
+         * Checks a response of a batch request. The responses may come in any
+         * order and are correlated to the requests by id.</p>
+         *
+         * @return the results in the order of the requests.
+         */
+        private Object[] checkJSONRPCBatchResponse(String jsonStr, int firstId, int count) throws JSONException {
+            totalExecTime = 0;
+            appExecTime = 0;
+
+            if (!jsonStr.trim().startsWith("[")) {
+                /* the whole batch is rejected with a single error response */
+                checkJSONRPCResult(new JSONObject(jsonStr), -1);
+                throw new JSONException("invalid jsonrpc batch response");
+            }
+            JSONArray array = new JSONArray(jsonStr);
+            Map<Integer, JSONObject> responses = new HashMap<>();
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject obj = array.getJSONObject(i);
+                responses.put(obj.optInt("id", -1), obj);
+            }
+            Object[] results = new Object[count];
+            for (int i = 0; i < count; i++) {
+                JSONObject obj = responses.get(firstId + i);
+                if (obj == null) {
+                    throw new JSONException("no jsonrpc response for id:" + (firstId + i));
+                }
+                results[i] = checkJSONRPCResult(obj, firstId + i);
+            }
+            return results;
+        }
+
+        private Object checkJSONRPCResult(JSONObject obj, int expectedId) throws JSONException {
+            if (!obj.getString("jsonrpc").matches("2.0")) {
+                throw new JSONException("invalid jsonrpc version");
+            }
+            if (obj.has("error")) {
+                JSONObject objError = obj.getJSONObject("error");
+                int code = objError.getInt("code");
+                String message = objError.getString("message");
+                throw new JSONException("jsonrpc error code:" + code + " message:" + message);
+            }
+            int id = obj.getInt("id");
+            if (id != expectedId) {
+                throw new JSONException("invalid jsonrpc id:" + id + " expected:" + expectedId);
+            }
+            if (!obj.has("result")) {
+                throw new JSONException("no result object");
+            }
+            Object result = obj.get("result");
+            if (result instanceof JSONObject) {
+                JSONObject res = (JSONObject) result;
+                if (res.has("meta")) {
+                    JSONObject meta = (JSONObject) ((JSONObject) result).getJSONObject("meta");
+                    if (meta.has("total_exec_time")) {
+                        totalExecTime += meta.getInt("total_exec_time");
+                    }
+                    if (meta.has("app_exec_time")) {
+                        appExecTime += meta.getInt("app_exec_time");
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    private String postJSONRPC(String url, String method, Lane lane, String reqStr) throws IOException {
         long st = System.currentTimeMillis();
-        String reqStr = makeJSONRPCRequest(method, params);
         if (System.getProperty("monsia.debug.jsonrpc") != null) {
             logger.info("---- JSONRPC request");
             logger.info(reqStr);
@@ -346,18 +577,33 @@ public class Protocol {
         //          ((HttpsURLConnection) con).setFixedLengthStreamingMode(reqStr.length());
         con.setRequestProperty("Content-Type", "application/json");
         con.setRequestProperty("User-Agent", USER_AGENT);
+        if (useGzip) {
+            con.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        }
         if (useSSO) {
             con.setRequestProperty("X-Support-SSO", "1");
         }
 
-        if (!this.openid_connect_rp_cookie.isEmpty()) {
-            con.setRequestProperty("Cookie", this.openid_connect_rp_cookie);
-            this.openid_connect_rp_cookie = "";
+        String rpCookie = this.openid_connect_rp_cookie.getAndSet("");
+        if (!rpCookie.isEmpty()) {
+            con.setRequestProperty("Cookie", rpCookie);
         }
 
-        try (OutputStreamWriter osw = new OutputStreamWriter(con.getOutputStream(), "UTF-8")) {
-            osw.write(reqStr);
-            osw.flush();
+        byte[] reqBytes = reqStr.getBytes("UTF-8");
+        int reqRawBytes = reqBytes.length;
+        int reqWireBytes = reqBytes.length;
+        if (useGzip && serverAcceptsGzip && reqBytes.length > gzipRequestThreshold) {
+            con.setRequestProperty("Content-Encoding", "gzip");
+            ByteArrayOutputStream gz = new ByteArrayOutputStream(reqBytes.length / 4);
+            try (GZIPOutputStream gos = new GZIPOutputStream(gz)) {
+                gos.write(reqBytes);
+            }
+            reqBytes = gz.toByteArray();
+            reqWireBytes = reqBytes.length;
+        }
+        try (OutputStream os = con.getOutputStream()) {
+            os.write(reqBytes);
+            os.flush();
         }
 
         int resCode = con.getResponseCode();
@@ -405,22 +651,26 @@ public class Protocol {
                 break;
         }
 
-        Object result;
-        try (ByteArrayOutputStream bytes = getHTTPBody(con)) {
+        String resStr;
+        InputStream stream = getResponseStream(con);
+        CountingInputStream wire = stream == null ? null : new CountingInputStream(stream);
+        try (ByteArrayOutputStream bytes = getHTTPBody(con, wire)) {
             long et = System.currentTimeMillis();
             if (System.getProperty("monsia.do_profile") != null) {
-                logger.info(method + ":" + (et - st) + "ms request_bytes:" + reqStr.length() + " response_bytes:" + bytes.size());
+                long resWireBytes = wire == null ? 0 : wire.getCount();
+                logger.info(method + ":" + (et - st) + "ms lane:" + lane.name + " queue_wait:" + lane.queueWait + "ms"
+                        + " request_bytes:" + reqRawBytes + " request_wire_bytes:" + reqWireBytes
+                        + " response_bytes:" + bytes.size() + " response_wire_bytes:" + resWireBytes);
             }
-            String resStr = bytes.toString("UTF-8");
+            resStr = bytes.toString("UTF-8");
             if (System.getProperty("monsia.debug.jsonrpc") != null) {
                 logger.info("---- JSONRPC response");
                 logger.info(resStr);
                 logger.info("----");
             }
-            result = checkJSONRPCResponse(resStr);
         }
-        con.disconnect();
-        return result;
+        ConnectionPool.release(con);
+        return resStr;
     }
 
     private String startOpenIDConnect(String sso_user, String sso_password, String sso_sp_uri, JSONObject params) throws IOException, JSONException {
@@ -440,7 +690,7 @@ public class Protocol {
             getServerInfo();
         }
 
-        JSONObject result = (JSONObject) jsonRPC(authURI, "start_session", params);
+        JSONObject result = (JSONObject) interactiveLane.call(authURI, "start_session", params);
         meta = result.getJSONObject("meta");
 
         this.sessionId = meta.getString("session_id");
@@ -478,17 +728,41 @@ public class Protocol {
         logger.info("pusherURI:" + this.pusherURI);
     }
 
-    public synchronized void endSession() throws IOException, JSONException {
+    private JSONObject makeSessionParams() throws JSONException {
+        JSONObject params = new JSONObject();
+        JSONObject meta = new JSONObject();
+        meta.put("client_version", PANDA_CLIENT_VERSION);
+        meta.put("session_id", this.sessionId);
+        params.put("meta", meta);
+        return params;
+    }
+
+    /**
+     * <p>
+     * Ends the session once the calls in progress on the other lanes are
+     * done.</p>
+     */
+    public void endSession() throws IOException, JSONException {
         JSONObject params = new JSONObject();
         JSONObject meta = new JSONObject();
         meta.put("client_version", PANDA_CLIENT_VERSION);
         meta.put("session_id", this.sessionId);
         params.put("meta", meta);
 
-        JSONObject result = (JSONObject) jsonRPC(this.rpcURI, "end_session", params);
+        synchronized (backgroundLane) {
+            synchronized (blobLane) {
+                interactiveLane.call(this.rpcURI, "end_session", params);
+            }
+        }
+        if (System.getProperty("monsia.do_profile") != null) {
+            logger.info(scheduler);
+            if (blobCache != null) {
+                logger.info("blob cache " + blobCache);
+            }
+        }
     }
 
-    public synchronized JSONObject getWindow() throws IOException, JSONException {
+    public JSONObject getWindow() throws IOException, JSONException {
 
         JSONObject params = new JSONObject();
         JSONObject meta = new JSONObject();
@@ -496,11 +770,25 @@ public class Protocol {
         meta.put("session_id", this.sessionId);
         params.put("meta", meta);
 
-        return (JSONObject) jsonRPC(this.rpcURI, "get_window", params);
+        return (JSONObject) interactiveLane.call(this.rpcURI, "get_window", params);
+
+    }
 
+    public String getScreenDefine(String wname) throws IOException, JSONException {
+        return getScreenDefine(wname, interactiveLane);
     }
 
-    public synchronized String getScreenDefine(String wname) throws IOException, JSONException {
+    /**
+     * <p>
+     * Gets the screen definition on the background lane, for a speculative
+     * fetch which must not delay nor be counted as interactive
+     * requests.</p>
+     */
+    public String prefetchScreenDefine(String wname) throws IOException, JSONException {
+        return getScreenDefine(wname, backgroundLane);
+    }
+
+    private String getScreenDefine(String wname, Lane lane) throws IOException, JSONException {
 
         JSONObject params = new JSONObject();
         JSONObject meta = new JSONObject();
@@ -509,95 +797,467 @@ public class Protocol {
         params.put("meta", meta);
         params.put("window", wname);
 
-        JSONObject result = (JSONObject) jsonRPC(this.rpcURI, "get_screen_define", params);
+        JSONObject result = (JSONObject) lane.call(this.rpcURI, "get_screen_define", params);
         return result.getString("screen_define");
 
     }
 
-    public synchronized JSONObject sendEvent(JSONObject params) throws IOException, JSONException {
+    /**
+     * <p>
+     * Gets the screen definitions of the windows in one batch request if the
+     * server supports it.</p>
+     *
+     * @return the map from window names to the screen definitions.
+     */
+    public Map<String, String> getScreenDefines(List<String> wnames) throws IOException, JSONException {
+        List<String> methods = new ArrayList<>();
+        List<JSONObject> params = new ArrayList<>();
+        for (String wname : wnames) {
+            JSONObject p = makeSessionParams();
+            p.put("window", wname);
+            methods.add("get_screen_define");
+            params.add(p);
+        }
+        Object[] results = interactiveLane.batch(this.rpcURI, methods, params);
+        Map<String, String> defines = new HashMap<>();
+        for (int i = 0; i < results.length; i++) {
+            defines.put(wnames.get(i), ((JSONObject) results[i]).getString("screen_define"));
+        }
+        return defines;
+    }
+
+    public JSONObject sendEvent(JSONObject params) throws IOException, JSONException {
         JSONObject meta = new JSONObject();
         meta.put("client_version", PANDA_CLIENT_VERSION);
         meta.put("session_id", this.sessionId);
         params.put("meta", meta);
-        return (JSONObject) jsonRPC(this.rpcURI, "send_event", params);
+        return (JSONObject) interactiveLane.call(this.rpcURI, "send_event", params);
 
     }
 
-    public synchronized JSONObject getMessage() throws IOException, JSONException {
+    public JSONObject getMessage() throws IOException, JSONException {
         JSONObject params = new JSONObject();
         JSONObject meta = new JSONObject();
         meta.put("client_version", PANDA_CLIENT_VERSION);
         meta.put("session_id", this.sessionId);
         params.put("meta", meta);
 
-        return (JSONObject) jsonRPC(this.rpcURI, "get_message", params);
+        return (JSONObject) backgroundLane.call(this.rpcURI, "get_message", params);
+    }
+
+    /**
+     * <p>
+     * Calls list_downloads and get_message for the ping timer in one batch
+     * request if the server supports it.</p>
+     *
+     * @return the result of list_downloads(or null) and the result of
+     * get_message(or null).
+     */
+    public Object[] ping(boolean listDownloads, boolean getMessage) throws IOException, JSONException {
+        List<String> methods = new ArrayList<>();
+        List<JSONObject> params = new ArrayList<>();
+        if (listDownloads) {
+            methods.add("list_downloads");
+            params.add(makeSessionParams());
+        }
+        if (getMessage) {
+            methods.add("get_message");
+            params.add(makeSessionParams());
+        }
+        Object[] results = backgroundLane.batch(this.rpcURI, methods, params);
+        Object[] ret = new Object[2];
+        int i = 0;
+        if (listDownloads) {
+            ret[0] = results[i++];
+        }
+        if (getMessage) {
+            ret[1] = results[i];
+        }
+        return ret;
+    }
+
+    public boolean acceptsBatch() {
+        return serverAcceptsBatch && System.getProperty("monsia.jsonrpc.disable_batch") == null;
     }
 
     public void getServerInfo() throws IOException, JSONException {
         JSONObject params = new JSONObject();
-        JSONObject result = (JSONObject) jsonRPC(authURI, "get_server_info", params);
+        JSONObject result = (JSONObject) interactiveLane.call(authURI, "get_server_info", params);
         this.protocolVersion = result.getString("protocol_version");
         this.applicationVersion = result.getString("application_version");
         this.serverType = result.getString("server_type");
+        this.serverAcceptsGzip = false;
+        this.serverAcceptsBatch = false;
+        JSONArray capabilities = result.optJSONArray("capabilities");
+        if (capabilities != null) {
+            for (int i = 0; i < capabilities.length(); i++) {
+                if ("gzip_request".equals(capabilities.optString(i))) {
+                    this.serverAcceptsGzip = true;
+                }
+                if ("batch".equals(capabilities.optString(i))) {
+                    this.serverAcceptsBatch = true;
+                }
+            }
+        }
 
         logger.info("protocol_version:" + this.protocolVersion);
         logger.info("application_version:" + this.applicationVersion);
         logger.info("server_type:" + this.getServerType());
+        logger.info("gzip_request:" + this.serverAcceptsGzip);
+        logger.info("batch:" + this.serverAcceptsBatch);
     }
 
-    public synchronized JSONArray listDownloads() throws IOException, JSONException {
+    public JSONArray listDownloads() throws IOException, JSONException {
         JSONObject params = new JSONObject();
         JSONObject meta = new JSONObject();
         meta.put("client_version", PANDA_CLIENT_VERSION);
         meta.put("session_id", this.sessionId);
         params.put("meta", meta);
 
-        return (JSONArray) jsonRPC(this.rpcURI, "list_downloads", params);
+        return (JSONArray) backgroundLane.call(this.rpcURI, "list_downloads", params);
     }
 
-    public synchronized int getBLOB(String oid, OutputStream out) throws IOException {
-        if (oid.equals("0")) {
-            // empty object id
-            out.close();
-            return 404;
-        }
+    /**
+     * <p>
+     * Sets the cache getBLOB and prefetchBLOB go through.</p>
+     */
+    void setBLOBCache(BLOBCache blobCache) {
+        this.blobCache = blobCache;
+    }
 
+    private HttpURLConnection openBLOB(String oid) throws IOException {
+        return openBLOB(oid, null);
+    }
+
+    private HttpURLConnection openBLOB(String oid, String etag) throws IOException {
         URL url = new URL(this.restURIRoot + "sessions/" + this.sessionId + "/blob/" + oid);
         HttpURLConnection con = getHttpURLConnection(url);
         con.setInstanceFollowRedirects(false);
         con.setRequestMethod("GET");
         con.setRequestProperty("User-Agent", USER_AGENT);
+        RangedDownload.setTimeouts(con);
+        if (etag != null) {
+            con.setRequestProperty("If-None-Match", etag);
+        }
+        return con;
+    }
+
+    private RangedDownload.Opener rangeOpener(final String oid) {
+        return (String range, String ifRange) -> {
+            HttpURLConnection con = openBLOB(oid);
+            con.setRequestProperty("Range", range);
+            if (ifRange != null) {
+                con.setRequestProperty("If-Range", ifRange);
+            }
+            return con;
+        };
+    }
+
+    /*
+     * Writes the BLOB to out, or to file when it is not null, from the cache,
+     * after revalidating it, or from the server storing it in the cache.
+     */
+    private int getCachedBLOB(String oid, long queued, int trafficClass, OutputStream out, File file, String label) throws IOException {
+        long st = System.currentTimeMillis();
+        int status = HttpURLConnection.HTTP_OK;
+        String result = "hit";
+        long waited = queued / 1000000L;
+        int resumed = 0;
+        byte[] data = blobCache.get(oid);
+        if (data != null) {
+            writeBLOB(data, out, file);
+        } else {
+            HttpURLConnection con = openBLOB(oid, blobCache.getETag(oid));
+            status = con.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                ConnectionPool.release(con);
+                data = blobCache.revalidate(oid);
+                if (data != null) {
+                    writeBLOB(data, out, file);
+                    status = HttpURLConnection.HTTP_OK;
+                    result = "revalidated";
+                } else {
+                    con = openBLOB(oid);
+                    status = con.getResponseCode();
+                }
+            }
+            if (data == null && status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                ConnectionPool.release(con);
+                return status;
+            }
+            if (data == null) {
+                result = "miss";
+                if (file != null) {
+                    RangedDownload download = new RangedDownload(oid, rangeOpener(oid), scheduler, trafficClass, file);
+                    long size = download.run(con, queued);
+                    waited = download.getWaitTime();
+                    resumed = download.getResumeCount();
+                    if (size <= blobCache.getMaxEntryBytes()) {
+                        data = Files.readAllBytes(file.toPath());
+                    }
+                } else {
+                    try (TransferScheduler.ScheduledInputStream in = scheduler.throttle(con.getInputStream(), queued, trafficClass)) {
+                        data = StreamTransfer.copyAndCapture(in, out, blobCache.getMaxEntryBytes());
+                        waited = in.getWaitTime();
+                    }
+                    ConnectionPool.release(con);
+                }
+                if (status == HttpURLConnection.HTTP_OK) {
+                    blobCache.put(oid, con.getHeaderField("ETag"), data);
+                }
+            }
+        }
+        if (System.getProperty("monsia.do_profile") != null) {
+            logger.info(label + ":" + (System.currentTimeMillis() - st) + "ms oid:" + oid + " cache:" + result
+                    + (data != null ? " bytes:" + data.length : "") + " queue_wait:" + waited + "ms"
+                    + (resumed > 0 ? " resumed:" + resumed : ""));
+        }
+        return status;
+    }
+
+    private static void writeBLOB(byte[] data, OutputStream out, File file) throws IOException {
+        if (file == null) {
+            out.write(data);
+            return;
+        }
+        try (OutputStream fileOut = new FileOutputStream(file)) {
+            fileOut.write(data);
+        }
+    }
 
-        try (BufferedInputStream bis = new BufferedInputStream(con.getInputStream())) {
-            int length;
-            while ((length = bis.read()) != -1) {
-                out.write(length);
+    /**
+     * <p>
+     * Fetches a BLOB ahead of its handler, as interactive traffic, into a
+     * temporary file. The file is kept until clearPrefetchedBLOBs and served
+     * by getBLOB.</p>
+     *
+     * @param cached whether the BLOB is an image kept in the BLOB cache, as
+     * with getBLOB(String, File), or a download, which is not.
+     * @return the file, or null when the server did not return the BLOB.
+     */
+    File prefetchBLOB(String oid, boolean cached) throws IOException {
+        File temp = TempFile.createTempFile("pandablob", ".bin");
+        temp.deleteOnExit();
+        boolean done = false;
+        scheduler.beginInteractive();
+        try {
+            int status;
+            if (cached && blobCache != null) {
+                status = getCachedBLOB(oid, 0, TransferScheduler.INTERACTIVE, null, temp, "prefetch_blob");
+            } else {
+                long st = System.currentTimeMillis();
+                HttpURLConnection con = openBLOB(oid);
+                status = con.getResponseCode();
+                if (status != HttpURLConnection.HTTP_OK) {
+                    ConnectionPool.release(con);
+                    return null;
+                }
+                RangedDownload download = new RangedDownload(oid, rangeOpener(oid), scheduler, TransferScheduler.INTERACTIVE, temp);
+                long size = download.run(con, 0);
+                if (System.getProperty("monsia.do_profile") != null) {
+                    logger.info("prefetch_blob:" + (System.currentTimeMillis() - st) + "ms oid:" + oid + " bytes:" + size
+                            + " queue_wait:" + download.getWaitTime() + "ms resumed:" + download.getResumeCount());
+                }
             }
+            if (status != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+            prefetchedBLOBs.put(oid, temp);
+            done = true;
+            return temp;
+        } finally {
+            scheduler.endInteractive();
+            if (!done) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Deletes the prefetched BLOBs after the screen update which used
+     * them.</p>
+     */
+    void clearPrefetchedBLOBs() {
+        for (File file : prefetchedBLOBs.values()) {
+            file.delete();
+        }
+        prefetchedBLOBs.clear();
+    }
+
+    /**
+     * <p>
+     * Fetches a BLOB of a screen update as interactive traffic.</p>
+     *
+     * @return the http status code. An error status is returned, not thrown,
+     * and nothing is written to out.
+     */
+    public int getBLOB(String oid, OutputStream out) throws IOException {
+        File prefetched = prefetchedBLOBs.get(oid);
+        if (prefetched != null) {
+            Files.copy(prefetched.toPath(), out);
+            out.close();
+            return 200;
+        }
+        if (oid.equals("0")) {
+            // empty object id
             out.close();
+            return 404;
         }
-        con.disconnect();
+        scheduler.beginInteractive();
+        try {
+            if (blobCache != null) {
+                int status = getCachedBLOB(oid, 0, TransferScheduler.INTERACTIVE, out, null, "get_blob");
+                out.close();
+                return status;
+            }
 
-        return con.getResponseCode();
+            HttpURLConnection con = openBLOB(oid);
+            int status = con.getResponseCode();
+            if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                ConnectionPool.release(con);
+                out.close();
+                return status;
+            }
+            try (InputStream in = scheduler.throttle(con.getInputStream(), 0, TransferScheduler.INTERACTIVE)) {
+                StreamTransfer.copy(in, out);
+                out.close();
+            }
+            ConnectionPool.release(con);
+
+            return status;
+        } finally {
+            scheduler.endInteractive();
+        }
     }
 
-    public synchronized String postBLOB(byte[] in) throws IOException {
-        URL url = new URL(this.restURIRoot + "sessions/" + this.sessionId + "/blob/");
-        HttpURLConnection con = getHttpURLConnection(url);
-        con.setInstanceFollowRedirects(false);
-        con.setRequestMethod("POST");
-        con.setDoOutput(true);
-        //((HttpsURLConnection) con.setFixedLengthStreamingMode(in.length);
-        con.setRequestProperty("Content-Type", "application/octet-stream");
-        con.setRequestProperty("User-Agent", USER_AGENT);
-        try (OutputStream os = con.getOutputStream()) {
-            os.write(in);
-            os.flush();
+    /**
+     * <p>
+     * Fetches an image of a screen update, such as a preview, straight into
+     * the file as interactive traffic. It goes through the BLOB cache.</p>
+     *
+     * @return the http status code. An error status is returned, not thrown,
+     * and the file is left as it was.
+     */
+    public int getBLOB(String oid, File file) throws IOException {
+        if (copyPrefetchedBLOB(oid, file)) {
+            return 200;
+        }
+        scheduler.beginInteractive();
+        try {
+            return downloadBLOB(oid, file, 0, TransferScheduler.INTERACTIVE, true);
+        } finally {
+            scheduler.endInteractive();
+        }
+    }
+
+    /**
+     * <p>
+     * Downloads a file the user saves or prints straight into the file. A
+     * dropped download is resumed and the completed file is verified by
+     * RangedDownload. Downloads are never kept in the BLOB cache. A bulk
+     * download, such as a report, goes through the BLOB lane and is
+     * throttled by the TransferScheduler.</p>
+     *
+     * @return the http status code. An error status is returned, not thrown,
+     * and the file is left as it was.
+     */
+    public int getBLOB(String oid, File file, boolean bulk) throws IOException {
+        if (copyPrefetchedBLOB(oid, file)) {
+            return 200;
+        }
+        if (!bulk) {
+            scheduler.beginInteractive();
+            try {
+                return downloadBLOB(oid, file, 0, TransferScheduler.INTERACTIVE, false);
+            } finally {
+                scheduler.endInteractive();
+            }
+        }
+        long queued = System.nanoTime();
+        synchronized (blobLane) {
+            queued = System.nanoTime() - queued;
+            return downloadBLOB(oid, file, queued, TransferScheduler.BULK, false);
+        }
+    }
+
+    private boolean copyPrefetchedBLOB(String oid, File file) throws IOException {
+        File prefetched = prefetchedBLOBs.get(oid);
+        if (prefetched == null) {
+            return false;
+        }
+        Files.copy(prefetched.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    private int downloadBLOB(String oid, File file, long queued, int trafficClass, boolean cached) throws IOException {
+        if (oid.equals("0")) {
+            // empty object id
+            return 404;
+        }
+        if (cached && blobCache != null) {
+            return getCachedBLOB(oid, queued, trafficClass, null, file, "get_blob");
+        }
+
+        long st = System.currentTimeMillis();
+        HttpURLConnection con = openBLOB(oid);
+        int status = con.getResponseCode();
+        if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            ConnectionPool.release(con);
+            return status;
+        }
+        RangedDownload download = new RangedDownload(oid, rangeOpener(oid), scheduler, trafficClass, file);
+        long size = download.run(con, queued);
+        if (System.getProperty("monsia.do_profile") != null) {
+            logger.info("get_blob:" + (System.currentTimeMillis() - st) + "ms oid:" + oid + " bytes:" + size
+                    + " queue_wait:" + download.getWaitTime() + "ms resumed:" + download.getResumeCount());
+        }
+
+        return status;
+    }
+
+    /**
+     * <p>
+     * Uploads a BLOB for the screen as interactive traffic.</p>
+     *
+     * @return the id of the BLOB.
+     */
+    public String postBLOB(byte[] in) throws IOException {
+        scheduler.beginInteractive();
+        try {
+            URL url = new URL(this.restURIRoot + "sessions/" + this.sessionId + "/blob/");
+            HttpURLConnection con = getHttpURLConnection(url);
+            con.setInstanceFollowRedirects(false);
+            con.setRequestMethod("POST");
+            con.setDoOutput(true);
+            //((HttpsURLConnection) con.setFixedLengthStreamingMode(in.length);
+            con.setRequestProperty("Content-Type", "application/octet-stream");
+            con.setRequestProperty("User-Agent", USER_AGENT);
+            try (OutputStream os = scheduler.throttle(con.getOutputStream(), 0, TransferScheduler.INTERACTIVE)) {
+                os.write(in);
+                os.flush();
+            }
+            String blobId = con.getHeaderField("x-blob-id");
+            ConnectionPool.release(con);
+            return blobId;
+        } finally {
+            scheduler.endInteractive();
         }
-        con.disconnect();
-        return con.getHeaderField("x-blob-id");
     }
 
     public String getSessionId() {
         return sessionId;
     }
+
+    public String getAuthURI() {
+        return authURI;
+    }
+
+    public String getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public String getApplicationVersion() {
+        return applicationVersion;
+    }
 }
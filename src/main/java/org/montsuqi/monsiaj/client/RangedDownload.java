@@ -0,0 +1,380 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.montsuqi.monsiaj.util.StreamTransfer;
+import org.montsuqi.monsiaj.util.SystemProperties;
+
+/**
+ * <p>
+ * Downloads a BLOB into a file, resuming with HTTP Range requests when the
+ * connection drops.</p>
+ * <p>
+ * The body of the first response is written to the file as it arrives.
+ * When reading fails, the rest is requested with Range: bytes=pos- and
+ * If-Range set to the ETag, so that a BLOB changed in the meantime is sent
+ * again as a whole. A server which ignores Range restarts the download from
+ * the top. Large BLOBs of a server which announces Accept-Ranges can be
+ * split into ranges fetched in parallel.</p>
+ * <p>
+ * The completed file is checked against Content-Length and, when the
+ * server sends one, the Digest(SHA-256 or MD5, RFC 3230) or Content-MD5
+ * header, before it is handed to the caller.</p>
+ * <ul>
+ * <li>monsia.blob.resume_retries: resumes of one range before giving
+ * up(default 3).</li>
+ * <li>monsia.blob.parallel_ranges: the number of parallel ranges, 1 to
+ * disable(default 1).</li>
+ * <li>monsia.blob.parallel_min_mb: the size from which a BLOB is split(default
+ * 8MB).</li>
+ * <li>monsia.blob.connect_timeout, monsia.blob.read_timeout: timeouts of BLOB
+ * connections in milliseconds(default 15000 and 30000), so that a link which
+ * drops without a reset is resumed instead of hanging.</li>
+ * </ul>
+ */
+class RangedDownload {
+
+    static final Logger logger = LogManager.getLogger(RangedDownload.class);
+
+    private static final int RESUME_RETRIES = SystemProperties.getInt("monsia.blob.resume_retries", 3);
+    private static final int PARALLEL_RANGES = SystemProperties.getInt("monsia.blob.parallel_ranges", 1);
+    private static final long PARALLEL_MIN = SystemProperties.getInt("monsia.blob.parallel_min_mb", 8) * 1024L * 1024L;
+    private static final int CONNECT_TIMEOUT = SystemProperties.getInt("monsia.blob.connect_timeout", 15000);
+    private static final int READ_TIMEOUT = SystemProperties.getInt("monsia.blob.read_timeout", 30000);
+    private static final long RETRY_DELAY = 500;
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool((Runnable r) -> {
+        Thread t = new Thread(r, "blob-range");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * <p>
+     * Opens a GET request for the BLOB with the given request headers, which
+     * may be null.</p>
+     */
+    interface Opener {
+
+        HttpURLConnection open(String range, String ifRange) throws IOException;
+    }
+
+    private final String oid;
+    private final Opener opener;
+    private final TransferScheduler scheduler;
+    private final int trafficClass;
+    private final File file;
+    private String etag;
+    private long waited;
+    private int resumed;
+
+    RangedDownload(String oid, Opener opener, TransferScheduler scheduler, int trafficClass, File file) {
+        this.oid = oid;
+        this.opener = opener;
+        this.scheduler = scheduler;
+        this.trafficClass = trafficClass;
+        this.file = file;
+        this.etag = null;
+        this.waited = 0;
+        this.resumed = 0;
+    }
+
+    /**
+     * <p>
+     * Sets the timeouts of a BLOB connection.</p>
+     */
+    static void setTimeouts(HttpURLConnection con) {
+        con.setConnectTimeout(CONNECT_TIMEOUT);
+        con.setReadTimeout(READ_TIMEOUT);
+    }
+
+    /**
+     * <p>
+     * Reads the BLOB into the file.</p>
+     *
+     * @param con the connection to read.
+     * @param queued nanoseconds the transfer already waited to start.
+     * @return the size of the file.
+     */
+    long run(HttpURLConnection con, long queued) throws IOException {
+        int status = con.getResponseCode();
+        if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            ConnectionPool.release(con);
+            throw new IOException("cannot get blob " + oid + " status:" + status);
+        }
+        if (status != HttpURLConnection.HTTP_OK) {
+            /* not resumed */
+            long size;
+            try (TransferScheduler.ScheduledInputStream in = scheduler.throttle(con.getInputStream(), queued, trafficClass)) {
+                size = StreamTransfer.copyToFile(in, file);
+                waited = in.getWaitNanos();
+            }
+            ConnectionPool.release(con);
+            return size;
+        }
+        long length = con.getContentLengthLong();
+        etag = con.getHeaderField("ETag");
+        boolean ranges = "bytes".equalsIgnoreCase(con.getHeaderField("Accept-Ranges"));
+        String digest = con.getHeaderField("Digest");
+        String contentMD5 = con.getHeaderField("Content-MD5");
+        waited = queued;
+        long size;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            if (ranges && PARALLEL_RANGES > 1 && length >= PARALLEL_MIN) {
+                size = fetchParallel(con, channel, length);
+            } else {
+                size = fetch(con, channel, 0, length, true);
+            }
+            raf.setLength(size);
+        }
+        scheduler.recordWait(trafficClass, waited);
+        verify(length, size, digest, contentMD5);
+        return size;
+    }
+
+    /**
+     * <p>
+     * Returns the milliseconds the download was held back by the
+     * scheduler.</p>
+     */
+    synchronized long getWaitTime() {
+        return waited / 1000000L;
+    }
+
+    synchronized int getResumeCount() {
+        return resumed;
+    }
+
+    private long fetchParallel(HttpURLConnection con, final FileChannel channel, long length) throws IOException {
+        long part = (length + PARALLEL_RANGES - 1) / PARALLEL_RANGES;
+        List<Future<Long>> futures = new ArrayList<>();
+        for (long start = part; start < length; start += part) {
+            final long from = start;
+            final long to = Math.min(start + part, length);
+            futures.add(EXECUTOR.submit(() -> fetch(null, channel, from, to, false)));
+        }
+        long size = 0;
+        try {
+            size += fetch(con, channel, 0, Math.min(part, length), false);
+            for (Future<Long> future : futures) {
+                size += future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("blob download interrupted");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            for (Future<Long> future : futures) {
+                future.cancel(true);
+            }
+        }
+        logger.info("blob " + oid + " fetched in " + (futures.size() + 1) + " ranges");
+        return size;
+    }
+
+    /*
+     * Fetches [start, end) of the BLOB, or up to its end when end is -1.
+     * con is the open connection to read first, or null to request the range.
+     * whole is true when the range is the whole BLOB; a server answering a
+     * resume with the whole BLOB then restarts the download.
+     */
+    private long fetch(HttpURLConnection con, FileChannel channel, long start, long end, boolean whole) throws IOException {
+        long pos = start;
+        int retries = 0;
+        while (true) {
+            try {
+                if (con == null) {
+                    con = openRange(pos, start, end, whole);
+                    if (con.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                        pos = 0;
+                    }
+                }
+                pos = copy(con, channel, pos, end);
+                if (end >= 0 && pos < end) {
+                    throw new IOException("premature end of blob at " + pos);
+                }
+                if (end >= 0 && con.getContentLengthLong() > pos - start) {
+                    /* the first response of a split BLOB is read only up to its range */
+                    con.disconnect();
+                } else {
+                    ConnectionPool.release(con);
+                }
+                return pos - start;
+            } catch (IOException ex) {
+                if (con != null) {
+                    con.disconnect();
+                    con = null;
+                }
+                /* a read timeout is an InterruptedIOException too, and is resumed */
+                if (Thread.currentThread().isInterrupted() || retries >= RESUME_RETRIES) {
+                    throw ex;
+                }
+                retries++;
+                synchronized (this) {
+                    resumed++;
+                }
+                logger.info("resume blob " + oid + " from " + pos + ": " + ex);
+                try {
+                    Thread.sleep(RETRY_DELAY * retries);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("blob download interrupted");
+                }
+            }
+        }
+    }
+
+    private HttpURLConnection openRange(long pos, long start, long end, boolean whole) throws IOException {
+        String range = "bytes=" + pos + "-" + (end >= 0 ? Long.toString(end - 1) : "");
+        /* a weak ETag can not be used in If-Range */
+        String ifRange = etag != null && !etag.startsWith("W/") ? etag : null;
+        HttpURLConnection con = opener.open(range, ifRange);
+        int status = con.getResponseCode();
+        if (status == HttpURLConnection.HTTP_PARTIAL) {
+            String contentRange = con.getHeaderField("Content-Range");
+            if (contentRange == null || !contentRange.startsWith("bytes " + pos + "-")) {
+                con.disconnect();
+                throw new IOException("unexpected Content-Range:" + contentRange);
+            }
+            return con;
+        }
+        if (status == HttpURLConnection.HTTP_OK && whole) {
+            String newETag = con.getHeaderField("ETag");
+            if ((etag != null && !etag.equals(newETag)) || (end >= 0 && con.getContentLengthLong() != end - start)) {
+                con.disconnect();
+                throw new IOException("blob " + oid + " changed during the download");
+            }
+            logger.info("blob " + oid + " is sent again from the top");
+            return con;
+        }
+        con.disconnect();
+        throw new IOException("cannot resume blob " + oid + " status:" + status);
+    }
+
+    private long copy(HttpURLConnection con, FileChannel channel, long pos, long end) throws IOException {
+        byte[] buf = new byte[StreamTransfer.BUFFER_SIZE];
+        TransferScheduler.ScheduledInputStream in = scheduler.throttle(con.getInputStream(), 0, trafficClass);
+        try {
+            while (end < 0 || pos < end) {
+                int len = buf.length;
+                if (end >= 0) {
+                    len = (int) Math.min(len, end - pos);
+                }
+                int n = in.read(buf, 0, len);
+                if (n == -1) {
+                    break;
+                }
+                ByteBuffer b = ByteBuffer.wrap(buf, 0, n);
+                while (b.hasRemaining()) {
+                    pos += channel.write(b, pos);
+                }
+            }
+        } finally {
+            synchronized (this) {
+                waited += in.getWaitNanos();
+            }
+        }
+        return pos;
+    }
+
+    private void verify(long length, long size, String digest, String contentMD5) throws IOException {
+        if (length >= 0 && size != length) {
+            throw new IOException("blob " + oid + " length mismatch " + size + "/" + length);
+        }
+        String algorithm = null;
+        String expected = null;
+        if (digest != null) {
+            for (String entry : digest.split(",")) {
+                String[] kv = entry.trim().split("=", 2);
+                if (kv.length != 2) {
+                    continue;
+                }
+                if (kv[0].equalsIgnoreCase("sha-256")) {
+                    algorithm = "SHA-256";
+                    expected = kv[1];
+                    break;
+                }
+                if (kv[0].equalsIgnoreCase("md5")) {
+                    algorithm = "MD5";
+                    expected = kv[1];
+                }
+            }
+        }
+        if (algorithm == null && contentMD5 != null) {
+            algorithm = "MD5";
+            expected = contentMD5.trim();
+        }
+        if (algorithm == null) {
+            return;
+        }
+        byte[] actual;
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance(algorithm);
+            byte[] buf = new byte[StreamTransfer.BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                md.update(buf, 0, n);
+            }
+            actual = md.digest();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        byte[] wanted;
+        try {
+            wanted = Base64.getDecoder().decode(expected);
+        } catch (IllegalArgumentException ex) {
+            logger.warn("invalid digest of blob " + oid + ":" + expected);
+            return;
+        }
+        if (!Arrays.equals(actual, wanted)) {
+            throw new IOException("blob " + oid + " " + algorithm + " mismatch");
+        }
+    }
+}
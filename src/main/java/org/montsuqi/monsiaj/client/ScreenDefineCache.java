@@ -0,0 +1,217 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONException;
+import org.montsuqi.monsiaj.monsia.BinaryInterface;
+import org.montsuqi.monsiaj.monsia.WidgetInfo;
+import org.montsuqi.monsiaj.util.DiskCache;
+import org.montsuqi.monsiaj.util.SystemProperties;
+import org.montsuqi.monsiaj.util.TempFile;
+
+/**
+ * <p>
+ * A persistent cache of screen definitions.</p>
+ * <p>
+ * Definitions are kept under ~/.monsiaj/cache/screen per server URI and
+ * per protocol_version/application_version. When the server reports another
+ * version, the definitions of the old versions are deleted.</p>
+ * <p>
+ * Parsed definitions are also kept in the form of BinaryInterface so that
+ * a window seen before is built without parsing XML.</p>
+ * <p>
+ * System property monsia.screen_cache.size_mb sets the size budget (default
+ * 64MB), monsia.disable_screen_cache disables the cache.</p>
+ */
+public class ScreenDefineCache {
+
+    private static final Logger logger = LogManager.getLogger(ScreenDefineCache.class);
+    private static final File SCREEN_CACHE_ROOT = new File(DiskCache.CACHE_ROOT, "screen");
+    private static final long DEFAULT_SIZE_MB = 64;
+
+    private final Protocol protocol;
+    private final DiskCache cache;
+    private int hits;
+    private int misses;
+    private int compiledHits;
+
+    private ScreenDefineCache(Protocol protocol, DiskCache cache) {
+        this.protocol = protocol;
+        this.cache = cache;
+        this.hits = 0;
+        this.misses = 0;
+        this.compiledHits = 0;
+    }
+
+    /**
+     * <p>
+     * Opens the cache for the current session of the protocol.</p>
+     *
+     * @return the cache, or null if the cache is disabled or the server did
+     * not report its version.
+     */
+    public static ScreenDefineCache open(Protocol protocol) {
+        if (System.getProperty("monsia.disable_screen_cache") != null) {
+            return null;
+        }
+        String protocolVersion = protocol.getProtocolVersion();
+        String applicationVersion = protocol.getApplicationVersion();
+        if (protocolVersion == null || applicationVersion == null) {
+            return null;
+        }
+        long sizeMB = SystemProperties.getLong("monsia.screen_cache.size_mb", DEFAULT_SIZE_MB);
+        String server = DiskCache.digest(protocol.getAuthURI());
+        String version = DiskCache.digest(protocolVersion + "/" + applicationVersion);
+        File serverDir = new File(SCREEN_CACHE_ROOT, server);
+        File[] dirs = serverDir.listFiles();
+        if (dirs != null) {
+            for (File d : dirs) {
+                if (!d.getName().equals(version)) {
+                    logger.info("evict stale screen cache " + d);
+                    TempFile.deleteAll(d);
+                }
+            }
+        }
+        DiskCache cache = new DiskCache(SCREEN_CACHE_ROOT, server + File.separator + version, sizeMB * 1024 * 1024);
+        logger.info("screen cache:" + cache.getDirectory());
+        return new ScreenDefineCache(protocol, cache);
+    }
+
+    /**
+     * <p>
+     * Returns the screen definition of the window, from the cache if
+     * possible.</p>
+     *
+     * @param prefetch true to fetch it on the background lane.
+     */
+    public String getScreenDefine(String windowName, boolean prefetch) throws IOException, JSONException {
+        byte[] data = cache.get(windowName);
+        if (data != null) {
+            synchronized (this) {
+                hits++;
+            }
+            return new String(data, StandardCharsets.UTF_8);
+        }
+        String define = prefetch ? protocol.prefetchScreenDefine(windowName) : protocol.getScreenDefine(windowName);
+        cache.put(windowName, define.getBytes(StandardCharsets.UTF_8));
+        synchronized (this) {
+            misses++;
+        }
+        return define;
+    }
+
+    /**
+     * <p>
+     * Returns the screen definitions of the windows. The definitions which
+     * are not cached are fetched at once.</p>
+     */
+    public Map<String, String> getScreenDefines(List<String> windowNames) throws IOException, JSONException {
+        Map<String, String> defines = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String windowName : windowNames) {
+            byte[] data = cache.get(windowName);
+            if (data != null) {
+                defines.put(windowName, new String(data, StandardCharsets.UTF_8));
+            } else {
+                missing.add(windowName);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, String> fetched = protocol.getScreenDefines(missing);
+            for (Map.Entry<String, String> e : fetched.entrySet()) {
+                cache.put(e.getKey(), e.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+            defines.putAll(fetched);
+        }
+        synchronized (this) {
+            hits += windowNames.size() - missing.size();
+            misses += missing.size();
+        }
+        return defines;
+    }
+
+    private static String compiledKey(String windowName) {
+        return "compiled:" + windowName;
+    }
+
+    public boolean hasCompiled(String windowName) {
+        return cache.contains(compiledKey(windowName));
+    }
+
+    /**
+     * <p>
+     * Returns the parsed definition of the window.</p>
+     *
+     * @return the top level WidgetInfos, or null if the window is not
+     * compiled yet or the entry is broken.
+     */
+    public List<WidgetInfo> getCompiled(String windowName) {
+        String key = compiledKey(windowName);
+        byte[] data = cache.get(key);
+        if (data == null) {
+            return null;
+        }
+        try {
+            List<WidgetInfo> roots = BinaryInterface.read(new ByteArrayInputStream(data));
+            synchronized (this) {
+                compiledHits++;
+            }
+            return roots;
+        } catch (IOException e) {
+            logger.info("drop compiled screen " + windowName + ": " + e);
+            cache.remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * <p>
+     * Stores the parsed definition of the window. This must be called before
+     * the widgets are built, since builders modify WidgetInfos.</p>
+     */
+    public void putCompiled(String windowName, List<WidgetInfo> roots) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BinaryInterface.write(roots, out);
+            cache.put(compiledKey(windowName), out.toByteArray());
+        } catch (IOException e) {
+            logger.warn("cannot compile screen " + windowName + ": " + e);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "hit:" + hits + " miss:" + misses + " compiled_hit:" + compiledHits;
+    }
+}
@@ -0,0 +1,396 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * <p>
+ * The compiled shape of the screen_data template of a window.</p>
+ * <p>
+ * The shape of a template never changes once it is received: the merge keeps
+ * the keys, the array lengths and the types of the values. So the template is
+ * flattened once into slots in preorder, each slot holding its parent slot,
+ * key or index and the kind of the value. Merging a response is a linear
+ * pass over the slots.</p>
+ * <p>
+ * The values stay in the JSONObjects of the template, since WidgetHandlers
+ * read them from there. An array lent to a widget which keeps reading it after
+ * it is set, such as a virtual CList, is not written into: the next merge puts
+ * a fresh copy of it into the template instead.</p>
+ */
+public class ScreenSchema {
+
+    private static final Logger logger = LogManager.getLogger(ScreenSchema.class);
+
+    private static final byte KIND_OBJECT = 0;
+    private static final byte KIND_ARRAY = 1;
+    private static final byte KIND_BOOLEAN = 2;
+    private static final byte KIND_INT = 3;
+    private static final byte KIND_DOUBLE = 4;
+    private static final byte KIND_STRING = 5;
+    private static final byte KIND_OTHER = 6;
+
+    private final int size;
+    private final byte[] kinds;
+    private final int[] parents;
+    private final String[] keys;
+    private final int[] indexes;
+    /* the template container for container slots */
+    private final Object[] containers;
+    /* the value class for KIND_OTHER slots */
+    private final Class[] classes;
+    /* the update container matched to each slot during merge */
+    private final Object[] updates;
+    /* one past the last descendant of each slot */
+    private final int[] ends;
+    /* the slot of each template array */
+    private final Map<Object, Integer> arraySlots;
+    /* arrays lent by lend, replaced instead of written by merge */
+    private final boolean[] lent;
+
+    private ScreenSchema(List<Object[]> slots) {
+        size = slots.size();
+        kinds = new byte[size];
+        parents = new int[size];
+        keys = new String[size];
+        indexes = new int[size];
+        containers = new Object[size];
+        classes = new Class[size];
+        updates = new Object[size];
+        ends = new int[size];
+        arraySlots = new IdentityHashMap<>();
+        lent = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            Object[] s = slots.get(i);
+            parents[i] = (Integer) s[0];
+            keys[i] = (String) s[1];
+            indexes[i] = (Integer) s[2];
+            Object value = s[3];
+            kinds[i] = kindOf(value);
+            if (kinds[i] == KIND_OBJECT || kinds[i] == KIND_ARRAY) {
+                containers[i] = value;
+                if (kinds[i] == KIND_ARRAY) {
+                    arraySlots.put(value, i);
+                }
+            } else if (kinds[i] == KIND_OTHER) {
+                classes[i] = value.getClass();
+            }
+            ends[i] = i + 1;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int p = parents[i];
+            ends[p] = Math.max(ends[p], ends[i]);
+        }
+    }
+
+    private static byte kindOf(Object value) {
+        if (value instanceof JSONObject) {
+            return KIND_OBJECT;
+        } else if (value instanceof JSONArray) {
+            return KIND_ARRAY;
+        } else if (value instanceof Boolean) {
+            return KIND_BOOLEAN;
+        } else if (value instanceof Integer) {
+            return KIND_INT;
+        } else if (value instanceof Double) {
+            return KIND_DOUBLE;
+        } else if (value instanceof String) {
+            return KIND_STRING;
+        }
+        return KIND_OTHER;
+    }
+
+    private static void flatten(List<Object[]> slots, int parent, String key, int index, Object value) throws JSONException {
+        int self = slots.size();
+        slots.add(new Object[]{parent, key, index, value});
+        if (value instanceof JSONObject) {
+            JSONObject obj = (JSONObject) value;
+            for (Iterator i = obj.keys(); i.hasNext();) {
+                String k = (String) i.next();
+                flatten(slots, self, k, -1, obj.get(k));
+            }
+        } else if (value instanceof JSONArray) {
+            JSONArray arr = (JSONArray) value;
+            for (int i = 0; i < arr.length(); i++) {
+                flatten(slots, self, null, i, arr.get(i));
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Compiles the template.</p>
+     */
+    public static ScreenSchema compile(JSONObject tmpl) {
+        List<Object[]> slots = new ArrayList<>();
+        try {
+            flatten(slots, -1, null, -1, tmpl);
+        } catch (JSONException ex) {
+            logger.catching(Level.FATAL, ex);
+        }
+        return new ScreenSchema(slots);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private boolean matches(int i, Object value) {
+        switch (kinds[i]) {
+            case KIND_BOOLEAN:
+                return value instanceof Boolean;
+            case KIND_INT:
+                return value instanceof Integer;
+            case KIND_DOUBLE:
+                return value instanceof Double;
+            case KIND_STRING:
+                return value instanceof String;
+            default:
+                return value != null && value.getClass() == classes[i];
+        }
+    }
+
+    private static Object defaultValue(byte kind) {
+        switch (kind) {
+            case KIND_BOOLEAN:
+                return Boolean.TRUE;
+            case KIND_INT:
+                return 0;
+            case KIND_DOUBLE:
+                return 0.0;
+            case KIND_STRING:
+                return "";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * <p>
+     * Merges screen_data of a response into the template. A value of the same
+     * type replaces the value in the template, a missing value or a value of
+     * another type resets it to the default of its type.</p>
+     */
+    public synchronized void merge(JSONObject upd) {
+        try {
+            updates[0] = upd;
+            for (int i = 1; i < size; i++) {
+                if (lent[i]) {
+                    renew(i);
+                }
+                int p = parents[i];
+                Object pu = updates[p];
+                Object v = null;
+                if (pu != null) {
+                    if (keys[i] != null) {
+                        v = ((JSONObject) pu).opt(keys[i]);
+                    } else {
+                        v = ((JSONArray) pu).opt(indexes[i]);
+                    }
+                }
+                byte kind = kinds[i];
+                if (kind == KIND_OBJECT) {
+                    updates[i] = v instanceof JSONObject ? v : null;
+                } else if (kind == KIND_ARRAY) {
+                    updates[i] = v instanceof JSONArray ? v : null;
+                } else {
+                    if (!matches(i, v)) {
+                        v = defaultValue(kind);
+                        if (v == null) {
+                            continue;
+                        }
+                    }
+                    if (keys[i] != null) {
+                        ((JSONObject) containers[p]).put(keys[i], v);
+                    } else {
+                        ((JSONArray) containers[p]).put(indexes[i], v);
+                    }
+                }
+            }
+        } catch (JSONException ex) {
+            logger.catching(Level.FATAL, ex);
+        } finally {
+            for (int i = 0; i < size; i++) {
+                updates[i] = null;
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Lends an array of the template to a widget. The array is left as it is
+     * by later merges.</p>
+     *
+     * @return false if the array is not part of the template.
+     */
+    public synchronized boolean lend(JSONArray array) {
+        Integer i = arraySlots.get(array);
+        if (i == null) {
+            return false;
+        }
+        lent[i] = true;
+        return true;
+    }
+
+    /*
+     * Replaces the lent array of slot i and its descendants in the template
+     * with copies, so that merge writes into the copies.
+     */
+    private void renew(int i) throws JSONException {
+        int end = ends[i];
+        Object[] olds = new Object[end - i];
+        for (int j = i; j < end; j++) {
+            olds[j - i] = containers[j];
+        }
+        for (int j = i; j < end; j++) {
+            int p = parents[j];
+            Object value;
+            if (kinds[j] == KIND_OBJECT) {
+                value = new JSONObject();
+                containers[j] = value;
+            } else if (kinds[j] == KIND_ARRAY) {
+                arraySlots.remove(containers[j]);
+                value = new JSONArray();
+                containers[j] = value;
+                arraySlots.put(value, j);
+                lent[j] = false;
+            } else {
+                Object old = olds[p - i];
+                value = keys[j] != null ? ((JSONObject) old).opt(keys[j]) : ((JSONArray) old).opt(indexes[j]);
+            }
+            if (keys[j] != null) {
+                ((JSONObject) containers[p]).put(keys[j], value);
+            } else {
+                ((JSONArray) containers[p]).put(indexes[j], value);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Merges upd into tmpl by walking the trees recursively. This is the
+     * former engine, used with monsia.legacy_screen_template.</p>
+     */
+    public static void mergeTree(Object tmpl, Object upd) {
+        try {
+            if (upd != null && tmpl.getClass() == upd.getClass()) {
+                if (tmpl instanceof JSONObject && upd instanceof JSONObject) {
+                    JSONObject tmplObj = (JSONObject) tmpl;
+                    JSONObject updObj = (JSONObject) upd;
+                    for (Iterator i = tmplObj.keys(); i.hasNext();) {
+                        String key = (String) i.next();
+                        Object c1 = tmplObj.get(key);
+                        Object c2 = null;
+                        if (updObj.has(key)) {
+                            c2 = updObj.get(key);
+                        }
+                        if (c1 instanceof JSONObject || c1 instanceof JSONArray) {
+                            mergeTree(c1, c2);
+                        } else if (c2 != null && c1.getClass() == c2.getClass()) {
+                            tmplObj.put(key, c2);
+                        } else if (c1 instanceof java.lang.Boolean) {
+                            tmplObj.put(key, true);
+                        } else if (c1 instanceof java.lang.Integer) {
+                            tmplObj.put(key, 0);
+                        } else if (c1 instanceof java.lang.Double) {
+                            tmplObj.put(key, 0.0);
+                        } else if (c1 instanceof java.lang.String) {
+                            tmplObj.put(key, "");
+                        }
+                    }
+                } else if (tmpl instanceof JSONArray && upd instanceof JSONArray) {
+                    JSONArray tmplArr = (JSONArray) tmpl;
+                    JSONArray updArr = (JSONArray) upd;
+                    for (int i = 0; i < tmplArr.length(); i++) {
+                        Object c1 = tmplArr.get(i);
+                        Object c2 = null;
+                        if (i < updArr.length()) {
+                            c2 = updArr.get(i);
+                        }
+                        if (c1 instanceof JSONObject || c1 instanceof JSONArray) {
+                            mergeTree(c1, c2);
+                        } else if (c2 != null && c1.getClass() == c2.getClass()) {
+                            tmplArr.put(i, c2);
+                        } else if (c1 instanceof java.lang.Boolean) {
+                            tmplArr.put(i, true);
+                        } else if (c1 instanceof java.lang.Integer) {
+                            tmplArr.put(i, 0);
+                        } else if (c1 instanceof java.lang.Double) {
+                            tmplArr.put(i, 0.0);
+                        } else if (c1 instanceof java.lang.String) {
+                            tmplArr.put(i, "");
+                        }
+                    }
+                } else if (logger.isDebugEnabled()) {
+                    logger.debug("screen_data type mismatch tmpl:" + tmpl + " upd:" + upd);
+                }
+            } else if (tmpl instanceof JSONObject) {
+                JSONObject tmplObj = (JSONObject) tmpl;
+                for (Iterator i = tmplObj.keys(); i.hasNext();) {
+                    String key = (String) i.next();
+                    Object c1 = tmplObj.get(key);
+                    if (c1 instanceof JSONObject || c1 instanceof JSONArray) {
+                        mergeTree(c1, null);
+                    } else if (c1 instanceof java.lang.Boolean) {
+                        tmplObj.put(key, true);
+                    } else if (c1 instanceof java.lang.Integer) {
+                        tmplObj.put(key, 0);
+                    } else if (c1 instanceof java.lang.Double) {
+                        tmplObj.put(key, 0.0);
+                    } else if (c1 instanceof java.lang.String) {
+                        tmplObj.put(key, "");
+                    }
+                }
+            } else if (tmpl instanceof JSONArray) {
+                JSONArray tmplArr = (JSONArray) tmpl;
+                for (int i = 0; i < tmplArr.length(); i++) {
+                    Object c1 = tmplArr.get(i);
+                    if (c1 instanceof JSONObject || c1 instanceof JSONArray) {
+                        mergeTree(c1, null);
+                    } else if (c1 instanceof java.lang.Boolean) {
+                        tmplArr.put(i, true);
+                    } else if (c1 instanceof java.lang.Integer) {
+                        tmplArr.put(i, 0);
+                    } else if (c1 instanceof java.lang.Double) {
+                        tmplArr.put(i, 0.0);
+                    } else if (c1 instanceof java.lang.String) {
+                        tmplArr.put(i, "");
+                    }
+                }
+            }
+        } catch (JSONException ex) {
+            logger.catching(Level.FATAL, ex);
+        }
+    }
+}
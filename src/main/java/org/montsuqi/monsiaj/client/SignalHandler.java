@@ -31,6 +31,7 @@ import java.util.Timer;
 import java.util.TimerTask;
 import javax.swing.JTextField;
 import javax.swing.JTextPane;
+import javax.swing.SwingUtilities;
 import javax.swing.text.JTextComponent;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -82,7 +83,7 @@ public abstract class SignalHandler {
     static Map<String, SignalHandler> handlers;
     static Timer timer;
     static TimerTask timerTask;
-    static boolean timerBlocked;
+    static volatile boolean timerBlocked;
     static final String SYMBOLS;
 
     private static void registerHandler(String signalName, SignalHandler handler) {
@@ -169,9 +170,7 @@ public abstract class SignalHandler {
                     timerTask = null;
                 }                
                 widget.requestFocusInWindow();                
-                blockChangedHandlers();
                 con.sendEvent(widget, userData);
-                unblockChangedHandlers();
             }
         };
 
@@ -215,6 +214,11 @@ public abstract class SignalHandler {
 
                     @Override
                     public void run() {
+                        /* the text and the input journal are touched on the EDT only */
+                        SwingUtilities.invokeLater(this::fire);
+                    }
+
+                    private void fire() {
                         JTextComponent text = (JTextComponent) widget;
                         String t = text.getText();
                         int length = t.length();
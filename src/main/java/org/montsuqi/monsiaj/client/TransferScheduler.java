@@ -0,0 +1,345 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.montsuqi.monsiaj.util.SystemProperties;
+
+/**
+ * <p>
+ * Schedules the traffic of the Protocol lanes so that bulk BLOB transfers do
+ * not compete with interactive requests for the link.</p>
+ * <p>
+ * While an interactive request is outstanding, bulk streams stop reading or
+ * writing; a paused download stops draining its socket, so the server's send
+ * window fills up and the link is left to the interactive request. Bulk
+ * traffic can also be capped at a fixed rate. The time each class of traffic
+ * spends waiting is recorded for the profile output.</p>
+ * <ul>
+ * <li>monsia.net.bulk_rate: bytes per second for bulk transfers, 0 for no
+ * cap(default).</li>
+ * <li>monsia.net.bulk_rate_interactive: bytes per second for bulk transfers
+ * while an interactive request is outstanding, 0 to pause them(default).</li>
+ * <li>monsia.net.max_pause: longest single pause of a bulk transfer in
+ * milliseconds(default 5000), so that it is never starved.</li>
+ * <li>monsia.net.disable_scheduler: no pausing and no caps.</li>
+ * </ul>
+ */
+class TransferScheduler {
+
+    static final Logger logger = LogManager.getLogger(TransferScheduler.class);
+
+    static final int INTERACTIVE = 0;
+    static final int BACKGROUND = 1;
+    static final int BULK = 2;
+    private static final String[] CLASS_NAMES = {"interactive", "background", "bulk"};
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int DEFAULT_MAX_PAUSE = 5000;
+
+    private final boolean enabled;
+    private final long bulkRate;
+    private final long interactiveBulkRate;
+    private final long maxPause;
+
+    private int interactive;
+    /* bytes that may be sent without waiting; negative when in debt */
+    private double tokens;
+    private long refilled;
+
+    private final long[] waitCount;
+    private final long[] waitTotal;
+    private final long[] waitMax;
+
+    TransferScheduler() {
+        enabled = System.getProperty("monsia.net.disable_scheduler") == null;
+        bulkRate = SystemProperties.getLong("monsia.net.bulk_rate", 0);
+        interactiveBulkRate = SystemProperties.getLong("monsia.net.bulk_rate_interactive", 0);
+        maxPause = SystemProperties.getLong("monsia.net.max_pause", DEFAULT_MAX_PAUSE);
+        interactive = 0;
+        tokens = 0;
+        refilled = System.nanoTime();
+        waitCount = new long[CLASS_NAMES.length];
+        waitTotal = new long[CLASS_NAMES.length];
+        waitMax = new long[CLASS_NAMES.length];
+        logger.info("transfer scheduler enabled:" + enabled + " bulk_rate:" + bulkRate
+                + " bulk_rate_interactive:" + interactiveBulkRate + " max_pause:" + maxPause + "ms");
+    }
+
+    /**
+     * <p>
+     * Marks the start of an interactive request. Bulk transfers slow down
+     * until the matching endInteractive.</p>
+     */
+    synchronized void beginInteractive() {
+        interactive++;
+    }
+
+    synchronized void endInteractive() {
+        interactive--;
+        notifyAll();
+    }
+
+    /**
+     * <p>
+     * Records the time a request of the class waited before it was
+     * sent.</p>
+     */
+    synchronized void recordWait(int trafficClass, long nanos) {
+        waitCount[trafficClass]++;
+        waitTotal[trafficClass] += nanos;
+        if (nanos > waitMax[trafficClass]) {
+            waitMax[trafficClass] = nanos;
+        }
+    }
+
+    /**
+     * <p>
+     * Blocks until bulk traffic may be transferred. The bytes transferred are
+     * charged afterwards by charge, and the wait is recorded by the stream
+     * when it is closed.</p>
+     *
+     * @return the nanoseconds waited.
+     */
+    long acquire() throws InterruptedIOException {
+        if (!enabled) {
+            return 0;
+        }
+        long st = System.nanoTime();
+        synchronized (this) {
+            long pauseEnd = st + maxPause * 1000000L;
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    if (interactive > 0 && interactiveBulkRate <= 0 && now < pauseEnd) {
+                        wait(Math.max(1, (pauseEnd - now) / 1000000L));
+                        continue;
+                    }
+                    long rate = currentRate();
+                    if (rate <= 0) {
+                        break;
+                    }
+                    refill(now, rate);
+                    if (tokens > 0) {
+                        break;
+                    }
+                    wait(Math.max(1, (long) (-tokens * 1000 / rate)));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("bulk transfer interrupted");
+            }
+        }
+        return System.nanoTime() - st;
+    }
+
+    /**
+     * <p>
+     * Charges the bytes of bulk traffic actually transferred against the
+     * rate cap.</p>
+     */
+    synchronized void charge(int bytes) {
+        long rate = currentRate();
+        if (!enabled || rate <= 0 || bytes <= 0) {
+            return;
+        }
+        refill(System.nanoTime(), rate);
+        tokens -= bytes;
+    }
+
+    private long currentRate() {
+        if (interactive > 0 && interactiveBulkRate > 0) {
+            return interactiveBulkRate;
+        }
+        return bulkRate;
+    }
+
+    private void refill(long now, long rate) {
+        tokens = Math.min(rate, tokens + (now - refilled) * rate / 1e9);
+        refilled = now;
+    }
+
+    /**
+     * <p>
+     * Wraps the stream of a download. Only a stream of BULK traffic is
+     * throttled; the others just record their queue wait.</p>
+     *
+     * @param queued nanoseconds the transfer already waited to start.
+     */
+    ScheduledInputStream throttle(InputStream in, long queued, int trafficClass) {
+        return new ScheduledInputStream(in, queued, trafficClass);
+    }
+
+    /**
+     * <p>
+     * Wraps the stream of an upload, like throttle(InputStream).</p>
+     *
+     * @param queued nanoseconds the transfer already waited to start.
+     */
+    ScheduledOutputStream throttle(OutputStream out, long queued, int trafficClass) {
+        return new ScheduledOutputStream(out, queued, trafficClass);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder buf = new StringBuilder();
+        buf.append("queue_wait");
+        for (int i = 0; i < CLASS_NAMES.length; i++) {
+            double avg = waitCount[i] == 0 ? 0 : waitTotal[i] / 1e6 / waitCount[i];
+            buf.append(String.format(" %s:%d/%.1fms/%.1fms", CLASS_NAMES[i], waitCount[i], avg, waitMax[i] / 1e6));
+        }
+        return buf.toString();
+    }
+
+    /**
+     * <p>
+     * A download stream read in chunks granted by the scheduler.</p>
+     */
+    class ScheduledInputStream extends FilterInputStream {
+
+        private final boolean bulk;
+        private final int trafficClass;
+        private long waited;
+        private boolean closed;
+
+        ScheduledInputStream(InputStream in, long queued, int trafficClass) {
+            super(in);
+            this.bulk = trafficClass == BULK;
+            this.trafficClass = trafficClass;
+            waited = queued;
+            closed = false;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!bulk) {
+                return super.read();
+            }
+            waited += acquire();
+            int c = super.read();
+            if (c != -1) {
+                charge(1);
+            }
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!bulk) {
+                return super.read(b, off, len);
+            }
+            waited += acquire();
+            int n = super.read(b, off, Math.min(len, CHUNK_SIZE));
+            charge(n);
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                recordWait(trafficClass, waited);
+            }
+            super.close();
+        }
+
+        /**
+         * <p>
+         * Returns the milliseconds the transfer was held back.</p>
+         */
+        long getWaitTime() {
+            return waited / 1000000L;
+        }
+
+        long getWaitNanos() {
+            return waited;
+        }
+    }
+
+    /**
+     * <p>
+     * An upload stream written in chunks granted by the scheduler.</p>
+     */
+    class ScheduledOutputStream extends FilterOutputStream {
+
+        private final boolean bulk;
+        private final int trafficClass;
+        private long waited;
+        private boolean closed;
+
+        ScheduledOutputStream(OutputStream out, long queued, int trafficClass) {
+            super(out);
+            this.bulk = trafficClass == BULK;
+            this.trafficClass = trafficClass;
+            waited = queued;
+            closed = false;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (bulk) {
+                waited += acquire();
+            }
+            out.write(b);
+            if (bulk) {
+                charge(1);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!bulk) {
+                out.write(b, off, len);
+                return;
+            }
+            while (len > 0) {
+                int n = Math.min(len, CHUNK_SIZE);
+                waited += acquire();
+                out.write(b, off, n);
+                charge(n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                recordWait(trafficClass, waited);
+            }
+            super.close();
+        }
+
+        long getWaitTime() {
+            return waited / 1000000L;
+        }
+    }
+}
@@ -16,12 +16,13 @@ import java.net.URL;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.JComponent;
 import javax.swing.JDialog;
 import javax.swing.JFrame;
 import javax.swing.JMenuItem;
 import javax.swing.SwingUtilities;
-import org.apache.logging.log4j.Level;
+import javax.swing.text.JTextComponent;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.json.JSONArray;
@@ -43,24 +44,31 @@ import org.montsuqi.monsiaj.widgets.Window;
 public class UIControl {
 
     protected static final Logger logger = LogManager.getLogger(UIControl.class);
-    private final HashMap<String, Node> nodeTable;
+    private static final boolean LEGACY_SCREEN_TEMPLATE = System.getProperty("monsia.legacy_screen_template") != null;
+    private final Map<String, Node> nodeTable;
     private String sessionTitle;
     private Color sessionBGColor;
     private Interface xml;
     private final TopWindow topWindow;
     private final Map styleMap;
-    private final Map<String, Component> changedWidgetMap;
+    private final ChangeTracker changeTracker;
+    private final WidgetBinding.Stats setWidgetStats;
+    private final InputJournal inputJournal;
     private final Map<String, Object> screenTemplateMap;
+    private final Map<String, ScreenSchema> screenSchemaMap;
     private final Client client;
     private final long timerPeriod;
 
     public UIControl(Client client, URL styleURL, long timerPeriod) throws IOException {
-        nodeTable = new HashMap<>();
+        nodeTable = new ConcurrentHashMap<>();
         sessionTitle = "";
         sessionBGColor = null;
         topWindow = new TopWindow();
-        changedWidgetMap = new HashMap<>();
+        changeTracker = new ChangeTracker();
+        setWidgetStats = new WidgetBinding.Stats();
+        inputJournal = new InputJournal();
         screenTemplateMap = new HashMap<>();
+        screenSchemaMap = new HashMap<>();
         this.client = client;
         styleMap = loadStyles(styleURL);
         this.timerPeriod = timerPeriod;
@@ -72,103 +80,57 @@ public class UIControl {
 
     public void addScreenTemplate(String window, Object object) {
         screenTemplateMap.put(window, object);
+        screenSchemaMap.remove(window);
     }
 
     public void updateScreenTemplate(Object tmpl, Object upd) {
-        try {
-            if (upd != null && tmpl.getClass() == upd.getClass()) {
-                if (tmpl instanceof JSONObject && upd instanceof JSONObject) {
-                    JSONObject tmplObj = (JSONObject) tmpl;
-                    JSONObject updObj = (JSONObject) upd;
-                    for (Iterator i = tmplObj.keys(); i.hasNext();) {
-                        String key = (String) i.next();
-                        Object c1 = tmplObj.get(key);
-                        Object c2 = null;
-                        if (updObj.has(key)) {
-                            c2 = updObj.get(key);
-                        }
-                        if (c1 instanceof JSONObject || c1 instanceof JSONArray) {
-                            updateScreenTemplate(c1, c2);
-                        } else if (c2 != null && c1.getClass() == c2.getClass()) {
-                            tmplObj.put(key, c2);
-                        } else if (c1 instanceof java.lang.Boolean) {
-                            tmplObj.put(key, true);
-                        } else if (c1 instanceof java.lang.Integer) {
-                            tmplObj.put(key, 0);
-                        } else if (c1 instanceof java.lang.Double) {
-                            tmplObj.put(key, 0.0);
-                        } else if (c1 instanceof java.lang.String) {
-                            tmplObj.put(key, "");
-                        }
-                    }
-                } else if (tmpl instanceof JSONArray && upd instanceof JSONArray) {
-                    JSONArray tmplArr = (JSONArray) tmpl;
-                    JSONArray updArr = (JSONArray) upd;
-                    for (int i = 0; i < tmplArr.length(); i++) {
-                        Object c1 = tmplArr.get(i);
-                        Object c2 = null;
-                        if (i < updArr.length()) {
-                            c2 = updArr.get(i);
-                        }
-                        if (c1 instanceof JSONObject || c1 instanceof JSONArray) {
-                            updateScreenTemplate(c1, c2);
-                        } else if (c2 != null && c1.getClass() == c2.getClass()) {
-                            tmplArr.put(i, c2);
-                        } else if (c1 instanceof java.lang.Boolean) {
-                            tmplArr.put(i, true);
-                        } else if (c1 instanceof java.lang.Integer) {
-                            tmplArr.put(i, 0);
-                        } else if (c1 instanceof java.lang.Double) {
-                            tmplArr.put(i, 0.0);
-                        } else if (c1 instanceof java.lang.String) {
-                            tmplArr.put(i, "");
-                        }
-                    }
-                } else {
-                    System.out.println("tmpl ----");
-                    System.out.println(tmpl);
-                    System.out.println("upd ----");
-                    System.out.println(upd);
-                }
-            } else if (tmpl instanceof JSONObject) {
-                JSONObject tmplObj = (JSONObject) tmpl;
-                for (Iterator i = tmplObj.keys(); i.hasNext();) {
-                    String key = (String) i.next();
-                    Object c1 = tmplObj.get(key);
-                    if (c1 instanceof JSONObject || c1 instanceof JSONArray) {
-                        updateScreenTemplate(c1, null);
-                    } else if (c1 instanceof java.lang.Boolean) {
-                        tmplObj.put(key, true);
-                    } else if (c1 instanceof java.lang.Integer) {
-                        tmplObj.put(key, 0);
-                    } else if (c1 instanceof java.lang.Double) {
-                        tmplObj.put(key, 0.0);
-                    } else if (c1 instanceof java.lang.String) {
-                        tmplObj.put(key, "");
-                    }
-                }
-            } else if (tmpl instanceof JSONArray) {
-                JSONArray tmplArr = (JSONArray) tmpl;
-                for (int i = 0; i < tmplArr.length(); i++) {
-                    Object c1 = tmplArr.get(i);
-                    if (c1 instanceof JSONObject || c1 instanceof JSONArray) {
-                        updateScreenTemplate(c1, null);
-                    } else if (c1 instanceof java.lang.Boolean) {
-                        tmplArr.put(i, true);
-                    } else if (c1 instanceof java.lang.Integer) {
-                        tmplArr.put(i, 0);
-                    } else if (c1 instanceof java.lang.Double) {
-                        tmplArr.put(i, 0.0);
-                    } else if (c1 instanceof java.lang.String) {
-                        tmplArr.put(i, "");
-                    }
-                }
+        ScreenSchema.mergeTree(tmpl, upd);
+    }
+
+    private ScreenSchema getScreenSchema(String window) {
+        ScreenSchema schema = screenSchemaMap.get(window);
+        if (schema == null) {
+            JSONObject tmpl = (JSONObject) screenTemplateMap.get(window);
+            if (tmpl == null) {
+                return null;
             }
-        } catch (JSONException ex) {
-            logger.catching(Level.FATAL, ex);
+            schema = ScreenSchema.compile(tmpl);
+            screenSchemaMap.put(window, schema);
+        }
+        return schema;
+    }
+
+    /**
+     * <p>
+     * Merges screen_data of a response into the template of the window.</p>
+     */
+    public void updateScreenTemplate(String window, JSONObject upd) {
+        if (LEGACY_SCREEN_TEMPLATE) {
+            updateScreenTemplate(getScreenTemplate(window), upd);
+            return;
+        }
+        ScreenSchema schema = getScreenSchema(window);
+        if (schema != null) {
+            schema.merge(upd);
         }
     }
 
+    /**
+     * <p>
+     * Lends an array of the screen_data of the widget's window to the widget,
+     * so that later responses do not write into it.</p>
+     *
+     * @return false if the array can not be lent, as with
+     * monsia.legacy_screen_template.
+     */
+    public boolean lendScreenData(Component widget, JSONArray array) {
+        if (LEGACY_SCREEN_TEMPLATE) {
+            return false;
+        }
+        ScreenSchema schema = getScreenSchema(getWindowName(widget));
+        return schema != null && schema.lend(array);
+    }
+
     public long getTimerPeriod() {
         return timerPeriod;
     }
@@ -204,6 +166,37 @@ public class UIControl {
         nodeTable.put(wName, node);
     }
 
+    void removeNode(String wName) {
+        Node node = nodeTable.remove(wName);
+        if (node != null) {
+            node.getWindow().dispose();
+        }
+    }
+
+    /**
+     * <p>
+     * Sets screen_data to the widgets of the window.</p>
+     */
+    public void setWidget(Node node, Object obj) throws JSONException {
+        WidgetBinding binding = node.getBinding();
+        if (binding != null) {
+            binding.apply(this, obj, styleMap, setWidgetStats);
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the counts of the widgets applied and skipped by setWidget,
+     * and of the updates suppressed by the handlers, since the last call, and
+     * resets them.</p>
+     */
+    public String takeSetWidgetStats() {
+        String s = setWidgetStats.toString()
+                + " suppressed_updates:" + WidgetHandler.takeSuppressedCount();
+        setWidgetStats.reset();
+        return s;
+    }
+
     public void setWidget(Interface xml, Component widget, Object obj) throws JSONException {
         if (widget == null) {
             return;
@@ -266,6 +259,11 @@ public class UIControl {
             return;
         }
         Window window = node.getWindow();
+        WidgetBinding binding = node.getBinding();
+        if (binding != null) {
+            /* the next screen_data of a reopened window is applied in full */
+            binding.reset();
+        }
 
         if (window.isDialog()) {
             JDialog dialog = window.getDialog();
@@ -366,14 +364,31 @@ public class UIControl {
         }
     }
 
-    public void sendEvent(Component widget, Object userData) {
+    /**
+     * <p>
+     * Sends an event for the widget. The round trip runs in the background;
+     * client.isReceiving() stays true and all windows stay busy until the
+     * screen has been updated.</p>
+     */
+    public void sendEvent(final Component widget, final Object userData) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> {
+                sendEvent(widget, userData);
+            });
+            return;
+        }
         if (client.isReceiving()) {
+            if (canBufferInput()) {
+                inputJournal.addEvent(widget, userData);
+            }
             return;
         }
+        boolean dispatched = false;
         try {
             client.startReceiving();
+            SignalHandler.blockChangedHandlers();
 
-            java.awt.Window window;
+            final java.awt.Window window;
             if (widget instanceof JMenuItem) {
                 JComponent c = (JComponent) widget;
                 window = (java.awt.Window) c.getClientProperty("window");
@@ -387,7 +402,7 @@ public class UIControl {
                 return;
             }
 
-            String oldTitle = getTitle(window);
+            final String oldTitle = getTitle(window);
             setTitle(window, Messages.getString("Client.loading"));
 
             String _windowName = getWidgetName(window.getName());
@@ -402,35 +417,121 @@ public class UIControl {
                 }
             }
             org.montsuqi.monsiaj.widgets.Window.busyAllWindows();
-            client.sendEvent(_windowName, _widgetName, event);
-
-            if (Messages.getString("Client.loading").equals(getTitle(window))) {
-                setTitle(window, oldTitle);
-            }
+            client.sendEvent(_windowName, _widgetName, event, () -> {
+                if (Messages.getString("Client.loading").equals(getTitle(window))) {
+                    setTitle(window, oldTitle);
+                }
+                SignalHandler.unblockChangedHandlers();
+                client.stopReceiving();
+                replayInput();
+            });
+            dispatched = true;
         } finally {
-            client.stopReceiving();
+            if (!dispatched) {
+                SignalHandler.unblockChangedHandlers();
+                client.stopReceiving();
+            }
         }
     }
 
     public void addChangedWidget(Component widget) {
         if (client.isReceiving()) {
+            if (canBufferInput()) {
+                inputJournal.addChanged(widget);
+            }
             return;
         }
         _addChangedWidget(widget);
     }
 
+    /* changes made while the screen is updated come from the server */
+    private boolean canBufferInput() {
+        return inputJournal.isEnabled() && !client.isUpdatingScreen();
+    }
+
+    /**
+     * <p>
+     * Replays the input buffered during the last send_event against the
+     * refreshed screen. An edit of a field whose text the response changed is
+     * dropped, so that the value set by the server is kept. Replay stops at
+     * the first event which starts a new round trip; the rest is replayed
+     * when that one completes.</p>
+     */
+    private void replayInput() {
+        if (inputJournal.isEmpty()) {
+            return;
+        }
+        InputJournal.Entry entry;
+        while (!client.isReceiving() && (entry = inputJournal.poll()) != null) {
+            Component widget = entry.getWidget();
+            if (!widget.isShowing()) {
+                continue;
+            }
+            if (entry.isEvent()) {
+                sendEvent(widget, entry.getUserData());
+            } else {
+                if (entry.isOverridden()) {
+                    continue;
+                }
+                String text = entry.getText();
+                if (text != null && widget instanceof JTextComponent) {
+                    JTextComponent textComponent = (JTextComponent) widget;
+                    if (!text.equals(textComponent.getText())) {
+                        textComponent.setText(text);
+                    }
+                }
+                _addChangedWidget(widget);
+            }
+        }
+        if (System.getProperty("monsia.do_profile") != null) {
+            logger.info("[typeahead] " + inputJournal);
+        }
+    }
+
     public void _addChangedWidget(Component widget) {
-        changedWidgetMap.put(widget.getName(), widget);
+        WidgetBinding binding = null;
+        String name = widget.getName();
+        if (name != null) {
+            int dot = name.indexOf('.');
+            Node node = getNode(dot < 0 ? name : name.substring(0, dot));
+            if (node != null) {
+                binding = node.getBinding(widget);
+            }
+        }
+        if (binding != null) {
+            binding.invalidate();
+        }
+        changeTracker.add(widget, binding);
     }
 
     public void clearChangedWidget() {
-        changedWidgetMap.clear();
+        changeTracker.clear();
     }
 
     public Interface getInterface() {
         return xml;
     }
 
+    /**
+     * <p>
+     * Collects the values of the changed widgets of the window into
+     * screen_data of an event.</p>
+     *
+     * @return the screen_data, or null if nothing is changed.
+     */
+    public JSONObject updateScreenData(Node node) throws JSONException {
+        String window = node.getName();
+        JSONObject tmpl = (JSONObject) getScreenTemplate(window);
+        if (tmpl == null) {
+            return null;
+        }
+        if (LEGACY_SCREEN_TEMPLATE) {
+            Interface xml = node.getInterface();
+            return updateScreenData(xml, xml.getWidgetByLongName(window), tmpl);
+        }
+        return changeTracker.collect(this, node, tmpl);
+    }
+
     public JSONObject updateScreenData(Interface xml, Component widget, Object obj) throws JSONException {
 
         if (!(obj instanceof JSONObject)) {
@@ -450,7 +551,7 @@ public class UIControl {
                 }
             }
         }
-        if (changedWidgetMap.containsKey(widget.getName())) {
+        if (changeTracker.contains(widget.getName())) {
             Class clazz = widget.getClass();
             WidgetHandler handler = WidgetHandler.getHandler(clazz);
             if (handler != null) {
@@ -0,0 +1,332 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.awt.Component;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.montsuqi.monsiaj.client.widgethandlers.WidgetHandler;
+import org.montsuqi.monsiaj.monsia.Interface;
+import org.montsuqi.monsiaj.util.JSONFingerprint;
+
+/**
+ * <p>
+ * A trie of the widgets of a window by the keys of screen_data.</p>
+ * <p>
+ * Each node holds the widget and its WidgetHandler resolved in advance, and
+ * the children by the keys. Applying screen_data is a walk guided by the
+ * trie, without building long names or resolving handlers.</p>
+ * <p>
+ * The path of keys from the window is kept in each node, so that the
+ * screen_data of a changed widget can be built without walking the
+ * tree.</p>
+ * <p>
+ * Each node also keeps the fingerprint of the screen_data last applied to
+ * its subtree. A subtree whose screen_data has the same fingerprint is
+ * skipped if all of its widgets are display only(see
+ * WidgetHandler.isDisplayOnly); the handlers of the other widgets are always
+ * run, since the user may have changed the widget without a signal or the
+ * handler has side effects. A change of a widget by the user clears the
+ * fingerprints on its path, and closing the window clears all of them.
+ * System property monsia.disable_screen_fingerprint disables skipping.</p>
+ */
+final class WidgetBinding {
+
+    private static final boolean USE_FINGERPRINT = System.getProperty("monsia.disable_screen_fingerprint") == null;
+
+    /**
+     * <p>
+     * Counts of the widgets applied and skipped.</p>
+     */
+    static final class Stats {
+
+        int applied;
+        int skipped;
+
+        void reset() {
+            applied = 0;
+            skipped = 0;
+        }
+
+        @Override
+        public String toString() {
+            return "applied_widgets:" + applied + " skipped_widgets:" + skipped;
+        }
+    }
+
+    private final Component widget;
+    private final WidgetHandler handler;
+    private final String[] keys;
+    private final WidgetBinding[] children;
+    private final Map<String, WidgetBinding> childMap;
+    private final boolean displayOnly;
+    private String[] path;
+    private WidgetBinding parent;
+    private int size;
+    private long pendingHash;
+    /* read by BLOBPrefetcher off the event dispatch thread */
+    private volatile long appliedHash;
+    private volatile boolean applied;
+
+    private WidgetBinding(Component widget, List<String> keys, List<WidgetBinding> children) {
+        this.widget = widget;
+        this.handler = WidgetHandler.getHandler(widget.getClass());
+        this.keys = keys.toArray(new String[keys.size()]);
+        this.children = children.toArray(new WidgetBinding[children.size()]);
+        this.childMap = new HashMap<>();
+        for (int i = 0; i < this.keys.length; i++) {
+            childMap.put(this.keys[i], this.children[i]);
+        }
+        this.path = new String[0];
+        boolean b = handler == null || handler.isDisplayOnly();
+        for (WidgetBinding child : this.children) {
+            b = b && child.displayOnly;
+        }
+        this.displayOnly = b;
+    }
+
+    private int index(Map<Component, WidgetBinding> table) {
+        table.put(widget, this);
+        size = 1;
+        for (int i = 0; i < children.length; i++) {
+            String[] childPath = new String[path.length + 1];
+            System.arraycopy(path, 0, childPath, 0, path.length);
+            childPath[path.length] = keys[i];
+            children[i].path = childPath;
+            children[i].parent = this;
+            size += children[i].index(table);
+        }
+        return size;
+    }
+
+    /**
+     * <p>
+     * Returns the bindings of the trie by widget.</p>
+     */
+    Map<Component, WidgetBinding> index() {
+        Map<Component, WidgetBinding> table = new IdentityHashMap<>();
+        index(table);
+        return table;
+    }
+
+    Component getWidget() {
+        return widget;
+    }
+
+    WidgetHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * <p>
+     * Returns the keys from the window to the widget.</p>
+     */
+    String[] getPath() {
+        return path;
+    }
+
+    /**
+     * <p>
+     * Builds the trie from the widget. A child of a widget is the widget
+     * whose long name is the name of the widget, a dot and the key.</p>
+     *
+     * @return the trie, or null if root is null.
+     */
+    static WidgetBinding build(Interface xml, Component root) {
+        if (root == null) {
+            return null;
+        }
+        Map<String, List<Map.Entry<String, Component>>> byParent = new HashMap<>();
+        for (Map.Entry<String, Component> e : xml.getWidgetsByLongName().entrySet()) {
+            String longName = e.getKey();
+            int dot = longName.lastIndexOf('.');
+            if (dot < 0) {
+                continue;
+            }
+            String parent = longName.substring(0, dot);
+            List<Map.Entry<String, Component>> list = byParent.get(parent);
+            if (list == null) {
+                list = new ArrayList<>();
+                byParent.put(parent, list);
+            }
+            list.add(new AbstractMap.SimpleImmutableEntry<>(longName.substring(dot + 1), e.getValue()));
+        }
+        return build(root, byParent, new IdentityHashMap<>());
+    }
+
+    private static WidgetBinding build(Component widget, Map<String, List<Map.Entry<String, Component>>> byParent, Map<Component, Boolean> path) {
+        path.put(widget, Boolean.TRUE);
+        List<String> keys = new ArrayList<>();
+        List<WidgetBinding> children = new ArrayList<>();
+        List<Map.Entry<String, Component>> list = byParent.get(widget.getName());
+        if (list != null) {
+            for (Map.Entry<String, Component> e : list) {
+                if (!path.containsKey(e.getValue())) {
+                    keys.add(e.getKey());
+                    children.add(build(e.getValue(), byParent, path));
+                }
+            }
+        }
+        path.remove(widget);
+        return new WidgetBinding(widget, keys, children);
+    }
+
+    /**
+     * <p>
+     * Forgets the fingerprints of the widget and its ancestors.</p>
+     */
+    void invalidate() {
+        for (WidgetBinding b = this; b != null; b = b.parent) {
+            b.applied = false;
+        }
+    }
+
+    /**
+     * <p>
+     * Forgets the fingerprints of the whole subtree.</p>
+     */
+    void reset() {
+        applied = false;
+        for (WidgetBinding child : children) {
+            child.reset();
+        }
+    }
+
+    /**
+     * <p>
+     * Computes the fingerprints of screen_data for the display only subtrees,
+     * the only ones which can be skipped. The screen_data of the other
+     * widgets, such as large lists, is not hashed.</p>
+     */
+    private void prepare(Object obj) {
+        if (displayOnly) {
+            fingerprint(obj, true);
+            return;
+        }
+        if (obj instanceof JSONObject) {
+            JSONObject j = (JSONObject) obj;
+            for (int i = 0; i < children.length; i++) {
+                Object value = j.opt(keys[i]);
+                if (value != null) {
+                    children[i].prepare(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Computes the fingerprints of screen_data for the subtree in one
+     * pass.</p>
+     */
+    private long fingerprint(Object obj, boolean store) {
+        long h;
+        if (obj instanceof JSONObject && children.length > 0) {
+            JSONObject j = (JSONObject) obj;
+            h = JSONFingerprint.objectSeed(j.length());
+            for (Iterator i = j.keys(); i.hasNext();) {
+                String key = (String) i.next();
+                Object value = j.opt(key);
+                WidgetBinding child = childMap.get(key);
+                h = JSONFingerprint.member(h, key, child != null ? child.fingerprint(value, store) : JSONFingerprint.of(value));
+            }
+        } else {
+            h = JSONFingerprint.of(obj);
+        }
+        if (store) {
+            pendingHash = h;
+        }
+        return h;
+    }
+
+    /**
+     * <p>
+     * Returns true if applying the screen_data to the subtree would be
+     * skipped. This may be called off the event dispatch thread.</p>
+     */
+    boolean isUnchanged(Object obj) {
+        return USE_FINGERPRINT && displayOnly && applied && fingerprint(obj, false) == appliedHash;
+    }
+
+    /**
+     * <p>
+     * Sets screen_data to the widget and its descendants, skipping the
+     * display only subtrees whose screen_data is not changed since the last
+     * time.</p>
+     */
+    void apply(UIControl con, Object obj, Map styleMap, Stats stats) throws JSONException {
+        if (obj == null) {
+            return;
+        }
+        if (USE_FINGERPRINT) {
+            prepare(obj);
+        }
+        applyTree(con, obj, styleMap, stats);
+    }
+
+    private void applyTree(UIControl con, Object obj, Map styleMap, Stats stats) throws JSONException {
+        if (obj == null) {
+            return;
+        }
+        if (USE_FINGERPRINT && displayOnly && applied && pendingHash == appliedHash) {
+            stats.skipped += size;
+            return;
+        }
+        applied = false;
+        if (handler != null) {
+            handler.set(con, widget, (JSONObject) obj, styleMap);
+            stats.applied++;
+        }
+        if (!(obj instanceof JSONObject) || children.length == 0) {
+            appliedHash = pendingHash;
+            applied = true;
+            return;
+        }
+        JSONObject j = (JSONObject) obj;
+        if (j.length() < children.length) {
+            for (Iterator i = j.keys(); i.hasNext();) {
+                String key = (String) i.next();
+                WidgetBinding child = childMap.get(key);
+                if (child != null) {
+                    child.applyTree(con, j.get(key), styleMap, stats);
+                }
+            }
+        } else {
+            for (int i = 0; i < children.length; i++) {
+                Object value = j.opt(keys[i]);
+                if (value != null) {
+                    children[i].applyTree(con, value, styleMap, stats);
+                }
+            }
+        }
+        appliedHash = pendingHash;
+        applied = true;
+    }
+}
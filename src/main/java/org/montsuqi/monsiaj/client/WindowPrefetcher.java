@@ -0,0 +1,342 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.montsuqi.monsiaj.monsia.ChildInfo;
+import org.montsuqi.monsiaj.monsia.Interface;
+import org.montsuqi.monsiaj.monsia.WidgetInfo;
+import org.montsuqi.monsiaj.util.DiskCache;
+import org.montsuqi.monsiaj.util.SystemProperties;
+
+/**
+ * <p>
+ * Prefetches and builds the windows which are likely to be opened next.</p>
+ * <p>
+ * The transitions of the focused window are counted and kept in a statistics
+ * file per server under ~/.monsiaj/cache/prefetch. When the user is idle
+ * after a screen update, the windows which most often followed the current
+ * one are fetched, parsed and built into the node table of UIControl, so
+ * that opening them costs no round trip.</p>
+ * <p>
+ * The windows built in advance and not shown yet are limited by the number
+ * of their widgets. The oldest ones are dropped when the limit is exceeded.
+ * A real event cancels prefetching in progress; an RPC already on the wire is
+ * finished.</p>
+ * <p>
+ * System properties:</p>
+ * <ul>
+ * <li>monsia.prefetch: enables prefetching.</li>
+ * <li>monsia.prefetch.count: the number of windows to prefetch(default 3).</li>
+ * <li>monsia.prefetch.max_widgets: the limit of the widgets built in
+ * advance(default 3000).</li>
+ * <li>monsia.prefetch.idle_ms: the idle time before prefetching(default
+ * 1500).</li>
+ * </ul>
+ */
+public class WindowPrefetcher {
+
+    private static final Logger logger = LogManager.getLogger(WindowPrefetcher.class);
+    private static final File PREFETCH_ROOT = new File(DiskCache.CACHE_ROOT, "prefetch");
+    private static final String SEPARATOR = "\t";
+    private static final int MAX_COUNT = 10000;
+
+    private final Client client;
+    private final UIControl uiControl;
+    private final ExecutorService executor;
+    private final File statsFile;
+    private final int prefetchCount;
+    private final int maxWidgets;
+    private final Timer idleTimer;
+
+    private final Map<String, Map<String, Integer>> transitions;
+    private final LinkedHashMap<String, Integer> prebuilt;
+    private int prebuiltWidgets;
+    private volatile int generation;
+    private Future<?> pending;
+    private String currentWindow;
+    private int prefetched;
+    private int used;
+    private int dropped;
+    private int cancelled;
+
+    private WindowPrefetcher(Client client, UIControl uiControl, ExecutorService executor, File statsFile) {
+        this.client = client;
+        this.uiControl = uiControl;
+        this.executor = executor;
+        this.statsFile = statsFile;
+        this.prefetchCount = SystemProperties.getInt("monsia.prefetch.count", 3);
+        this.maxWidgets = SystemProperties.getInt("monsia.prefetch.max_widgets", 3000);
+        this.idleTimer = new Timer(SystemProperties.getInt("monsia.prefetch.idle_ms", 1500), (e) -> {
+            prefetch();
+        });
+        this.idleTimer.setRepeats(false);
+        this.transitions = new HashMap<>();
+        this.prebuilt = new LinkedHashMap<>();
+        this.prebuiltWidgets = 0;
+        this.generation = 0;
+        this.pending = null;
+        this.currentWindow = null;
+        load();
+    }
+
+    /**
+     * <p>
+     * Opens the prefetcher for the server.</p>
+     *
+     * @return the prefetcher, or null if prefetching is disabled.
+     */
+    static WindowPrefetcher open(Client client, UIControl uiControl, ExecutorService executor, String authURI) {
+        if (System.getProperty("monsia.prefetch") == null) {
+            return null;
+        }
+        File statsFile = new File(PREFETCH_ROOT, DiskCache.digest(authURI) + ".properties");
+        return new WindowPrefetcher(client, uiControl, executor, statsFile);
+    }
+
+    private synchronized void load() {
+        if (!statsFile.isFile()) {
+            return;
+        }
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(statsFile)) {
+            props.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.info("cannot read prefetch statistics " + statsFile + ": " + e);
+            return;
+        }
+        for (String key : props.stringPropertyNames()) {
+            String[] pair = key.split(SEPARATOR);
+            if (pair.length != 2) {
+                continue;
+            }
+            try {
+                getTransitions(pair[0]).put(pair[1], Integer.valueOf(props.getProperty(key)));
+            } catch (NumberFormatException e) {
+                // ignore broken entry
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Writes the statistics to the file.</p>
+     */
+    public synchronized void save() {
+        Properties props = new Properties();
+        for (Map.Entry<String, Map<String, Integer>> from : transitions.entrySet()) {
+            for (Map.Entry<String, Integer> to : from.getValue().entrySet()) {
+                props.setProperty(from.getKey() + SEPARATOR + to.getKey(), to.getValue().toString());
+            }
+        }
+        File temp = new File(statsFile.getPath() + ".tmp");
+        try {
+            PREFETCH_ROOT.mkdirs();
+            try (OutputStream out = new FileOutputStream(temp)) {
+                props.store(out, "window transitions");
+            }
+            statsFile.delete();
+            if (!temp.renameTo(statsFile)) {
+                throw new IOException("cannot rename " + temp);
+            }
+        } catch (IOException e) {
+            logger.warn("cannot write prefetch statistics " + statsFile + ": " + e);
+            temp.delete();
+        }
+    }
+
+    private Map<String, Integer> getTransitions(String from) {
+        Map<String, Integer> map = transitions.get(from);
+        if (map == null) {
+            map = new HashMap<>();
+            transitions.put(from, map);
+        }
+        return map;
+    }
+
+    /**
+     * <p>
+     * Counts a transition of the focused window. Old counts are halved when
+     * a count reaches the limit, so that the statistics follow changes of the
+     * user's work.</p>
+     */
+    public synchronized void recordTransition(String from, String to) {
+        if (from == null || to == null || from.equals(to)) {
+            return;
+        }
+        Map<String, Integer> map = getTransitions(from);
+        Integer count = map.get(to);
+        int n = count == null ? 1 : count + 1;
+        map.put(to, n);
+        if (n >= MAX_COUNT) {
+            for (Map.Entry<String, Integer> e : map.entrySet()) {
+                e.setValue(e.getValue() / 2);
+            }
+        }
+    }
+
+    private synchronized List<String> getCandidates(String from) {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>();
+        Map<String, Integer> map = transitions.get(from);
+        if (map != null) {
+            entries.addAll(map.entrySet());
+        }
+        entries.sort((a, b) -> b.getValue() - a.getValue());
+        List<String> candidates = new ArrayList<>();
+        for (Map.Entry<String, Integer> e : entries) {
+            if (candidates.size() >= prefetchCount) {
+                break;
+            }
+            if (e.getValue() > 0 && uiControl.getNode(e.getKey()) == null) {
+                candidates.add(e.getKey());
+            }
+        }
+        return candidates;
+    }
+
+    private static int countWidgets(WidgetInfo info) {
+        int n = 1;
+        for (Object o : info.getChildren()) {
+            WidgetInfo child = ((ChildInfo) o).getWidgetInfo();
+            if (child != null) {
+                n += countWidgets(child);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * <p>
+     * Starts the idle timer to prefetch the windows which follow the
+     * window. Called on the event dispatch thread after a screen update.</p>
+     */
+    public void schedule(String windowName) {
+        cancel();
+        currentWindow = windowName;
+        idleTimer.restart();
+    }
+
+    /**
+     * <p>
+     * Cancels the prefetching. Called on the event dispatch thread when a real
+     * event arrives.</p>
+     */
+    public void cancel() {
+        idleTimer.stop();
+        generation++;
+        if (pending != null && !pending.isDone()) {
+            pending.cancel(false);
+            cancelled++;
+        }
+        pending = null;
+    }
+
+    /**
+     * <p>
+     * Notifies that the window is in the window stack. Called on the event
+     * dispatch thread.</p>
+     */
+    public void windowShown(String windowName) {
+        Integer widgets = prebuilt.remove(windowName);
+        if (widgets != null) {
+            prebuiltWidgets -= widgets;
+            used++;
+        }
+    }
+
+    private void prefetch() {
+        final List<String> candidates = getCandidates(currentWindow);
+        if (candidates.isEmpty()) {
+            return;
+        }
+        final int gen = generation;
+        pending = executor.submit(() -> {
+            for (final String windowName : candidates) {
+                if (gen != generation) {
+                    return;
+                }
+                try {
+                    final List<WidgetInfo> roots = client.prefetchWidgetInfo(windowName);
+                    SwingUtilities.invokeLater(() -> {
+                        build(gen, windowName, roots);
+                    });
+                } catch (IOException | RuntimeException e) {
+                    logger.info("prefetch " + windowName + " failed: " + e);
+                }
+            }
+        });
+    }
+
+    private void build(int gen, String windowName, List<WidgetInfo> roots) {
+        if (gen != generation || uiControl.getNode(windowName) != null) {
+            return;
+        }
+        int widgets = 0;
+        for (WidgetInfo info : roots) {
+            widgets += countWidgets(info);
+        }
+        if (widgets > maxWidgets) {
+            return;
+        }
+        Iterator<Map.Entry<String, Integer>> i = prebuilt.entrySet().iterator();
+        while (prebuiltWidgets + widgets > maxWidgets && i.hasNext()) {
+            Map.Entry<String, Integer> e = i.next();
+            uiControl.removeNode(e.getKey());
+            prebuiltWidgets -= e.getValue();
+            i.remove();
+            dropped++;
+        }
+        long st = System.currentTimeMillis();
+        Node node = new Node(new Interface(roots, uiControl), windowName);
+        uiControl.putNode(windowName, node);
+        prebuilt.put(windowName, widgets);
+        prebuiltWidgets += widgets;
+        prefetched++;
+        if (System.getProperty("monsia.do_profile") != null) {
+            logger.info("[prefetch] " + windowName + " widgets:" + widgets + " build:" + (System.currentTimeMillis() - st) + "ms");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "prefetched:" + prefetched + " used:" + used + " dropped:" + dropped + " cancelled:" + cancelled;
+    }
+}
@@ -25,6 +25,7 @@ package org.montsuqi.monsiaj.client.widgethandlers;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Container;
+import java.util.BitSet;
 import java.util.Map;
 import javax.swing.BoundedRangeModel;
 import javax.swing.JScrollBar;
@@ -34,6 +35,7 @@ import javax.swing.JViewport;
 import javax.swing.ListSelectionModel;
 import javax.swing.event.TableModelListener;
 import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableModel;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.json.JSONArray;
@@ -41,7 +43,10 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.montsuqi.monsiaj.client.UIControl;
 import org.montsuqi.monsiaj.util.SafeColorDecoder;
+import org.montsuqi.monsiaj.util.SystemProperties;
+import org.montsuqi.monsiaj.widgets.CListTableModel;
 import org.montsuqi.monsiaj.widgets.PandaCList;
+import org.montsuqi.monsiaj.widgets.RowColors;
 
 /**
  * <p>
@@ -51,14 +56,15 @@ class CListHandler extends WidgetHandler {
 
     protected static final Logger logger = LogManager.getLogger(CListHandler.class);
 
+    /* lists of this many rows or more are read lazily; 0 disables */
+    private static final int VIRTUAL_ROWS = SystemProperties.getInt("monsia.pandaclist.virtual_rows", 5000);
+
     @Override
     public void set(UIControl con, Component widget, JSONObject obj, Map styleMap) throws JSONException {
         JTable table = (JTable) widget;
         PandaCList clist = (PandaCList) widget;
 
-        DefaultTableModel tableModel = (DefaultTableModel) table.getModel();
-        TableModelListener[] listeners = tableModel.getTableModelListeners();
-
+        boolean changed = false;
         int count = 0;
         if (obj.has("count")) {
             count = obj.getInt("count");
@@ -92,61 +98,41 @@ class CListHandler extends WidgetHandler {
 
         if (obj.has("item")) {
             JSONArray array = obj.getJSONArray("item");
-            int n = array.length();
-            n = n > count ? count : n;
-            int rows = tableModel.getRowCount();
-            int columns = tableModel.getColumnCount();
-            for (TableModelListener l : listeners) {
-                tableModel.removeTableModelListener(l);
-            }
-
-            if (n < rows) {
-                for (int i = rows; i > n; i--) {
-                    tableModel.removeRow(i - 1);
-                }
-            } else if (n > rows) {
-                Object rowData[] = new String[columns];
-                for (int i = rows; i < n; i++) {
-                    tableModel.addRow(rowData);
+            TableModel model = table.getModel();
+            if (model instanceof CListTableModel) {
+                CListTableModel clistModel = (CListTableModel) model;
+                int n = Math.min(array.length(), count);
+                if (VIRTUAL_ROWS > 0 && n >= VIRTUAL_ROWS && con.lendScreenData(widget, array)) {
+                    clistModel.setSource(new ItemSource(array, columnKeys(clistModel.getColumnCount())), n);
+                    changed = true;
+                } else {
+                    changed |= loadItems(clistModel, array, count);
                 }
-            }
-
-            for (int i = 0; i < n; i++) {
-                JSONObject rowObj = array.getJSONObject(i);
-
-                for (int j = 0; j < columns; j++) {
-                    String key = "column" + (j + 1);
-                    tableModel.setValueAt(rowObj.getString(key), i, j);
-                }
-            }
-
-            for (TableModelListener l : listeners) {
-                tableModel.addTableModelListener(l);
+            } else {
+                changed |= setItems((DefaultTableModel) model, array, count);
             }
         }
 
         if (obj.has("bgcolor")) {
             JSONArray array = obj.getJSONArray("bgcolor");
-            Color[] bgcolors = new Color[array.length()];
-            for (int i = 0; i < array.length(); i++) {
-                bgcolors[i] = SafeColorDecoder.decode(array.getString(i));
-                if (bgcolors[i] == null) {
-                    bgcolors[i] = Color.WHITE;
-                }
+            RowColors bgcolors = decodeColors(array, Color.WHITE);
+            if (bgcolors.equals(clist.getBGColors())) {
+                suppressed();
+            } else {
+                clist.setBGColors(bgcolors);
+                changed = true;
             }
-            clist.setBGColors(bgcolors);
         }
 
         if (obj.has("fgcolor")) {
             JSONArray array = obj.getJSONArray("fgcolor");
-            Color[] fgcolors = new Color[array.length()];
-            for (int i = 0; i < array.length(); i++) {
-                fgcolors[i] = SafeColorDecoder.decode(array.getString(i));
-                if (fgcolors[i] == null) {
-                    fgcolors[i] = Color.BLACK;
-                }
+            RowColors fgcolors = decodeColors(array, Color.BLACK);
+            if (fgcolors.equals(clist.getFGColors())) {
+                suppressed();
+            } else {
+                clist.setFGColors(fgcolors);
+                changed = true;
             }
-            clist.setFGColors(fgcolors);
         }
 
         int row = 0;
@@ -170,15 +156,20 @@ class CListHandler extends WidgetHandler {
             JSONArray array = obj.getJSONArray("selectdata");
             int n = array.length();
             n = n > count ? count : n;
-            boolean[] selection = new boolean[n];
+            BitSet selection = new BitSet(n);
             for (int j = 0; j < n; j++) {
                 boolean selected = array.getBoolean(j);
-                selection[j] = selected;
+                selection.set(j, selected);
                 if (clist.getMode() == PandaCList.SELECTION_MODE_MULTI && selected) {
                     clist.changeSelection(j, 0, false, false);
                 }
             }
-            clist.setSelection(selection);
+            if (n == clist.getSelectionLength() && selection.equals(clist.getSelectionBits())) {
+                suppressed();
+            } else {
+                clist.setSelection(selection, n);
+                changed = true;
+            }
         }
 
         JScrollBar vScroll = getVerticalScrollBar(table);
@@ -204,38 +195,167 @@ class CListHandler extends WidgetHandler {
             }
         }
         this.setCommonAttribute(widget, obj, styleMap);
-        widget.setVisible(false);
-        widget.setVisible(true);
+        /* the model is updated with its listeners removed */
+        if (changed) {
+            table.revalidate();
+            table.repaint();
+        }
+        if (!widget.isVisible()) {
+            widget.setVisible(true);
+        }
         clist.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
     }
 
+    /**
+     * <p>
+     * Loads the rows into the columnar model in one pass. Returns true if the
+     * list changed.</p>
+     */
+    private boolean loadItems(CListTableModel tableModel, JSONArray array, int count) throws JSONException {
+        int n = array.length();
+        n = n > count ? count : n;
+        int columns = tableModel.getColumnCount();
+        String[] keys = columnKeys(columns);
+        String[][] data = tableModel.beginLoad(n);
+        for (int i = 0; i < n; i++) {
+            JSONObject rowObj = array.getJSONObject(i);
+            for (int j = 0; j < columns; j++) {
+                data[j][i] = rowObj.getString(keys[j]);
+            }
+        }
+        if (tableModel.endLoad(n)) {
+            return true;
+        }
+        suppressed();
+        return false;
+    }
+
+    /**
+     * <p>
+     * Sets the rows cell by cell into a DefaultTableModel. Returns true if
+     * the list changed.</p>
+     */
+    private boolean setItems(DefaultTableModel tableModel, JSONArray array, int count) throws JSONException {
+        boolean changed = false;
+        TableModelListener[] listeners = tableModel.getTableModelListeners();
+        int n = array.length();
+        n = n > count ? count : n;
+        int rows = tableModel.getRowCount();
+        int columns = tableModel.getColumnCount();
+        String[] keys = columnKeys(columns);
+        for (TableModelListener l : listeners) {
+            tableModel.removeTableModelListener(l);
+        }
+
+        if (n != rows) {
+            changed = true;
+        }
+        if (n < rows) {
+            for (int i = rows; i > n; i--) {
+                tableModel.removeRow(i - 1);
+            }
+        } else if (n > rows) {
+            Object rowData[] = new String[columns];
+            for (int i = rows; i < n; i++) {
+                tableModel.addRow(rowData);
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            JSONObject rowObj = array.getJSONObject(i);
+
+            for (int j = 0; j < columns; j++) {
+                String value = rowObj.getString(keys[j]);
+                if (value.equals(tableModel.getValueAt(i, j))) {
+                    suppressed();
+                } else {
+                    tableModel.setValueAt(value, i, j);
+                    changed = true;
+                }
+            }
+        }
+
+        for (TableModelListener l : listeners) {
+            tableModel.addTableModelListener(l);
+        }
+        return changed;
+    }
+
+    /**
+     * <p>
+     * Decodes the colors of the rows.</p>
+     */
+    private static RowColors decodeColors(JSONArray array, Color defaultColor) throws JSONException {
+        int n = array.length();
+        RowColors colors = new RowColors(defaultColor, n);
+        for (int i = 0; i < n; i++) {
+            Color color = SafeColorDecoder.decode(array.getString(i));
+            colors.add(i, color != null ? color : defaultColor);
+        }
+        return colors;
+    }
+
+    /**
+     * <p>
+     * Reads the cells of a virtual list from the item array of the screen
+     * data. The array is lent by UIControl.lendScreenData, so the merge of a
+     * later response does not write into it.</p>
+     */
+    private static final class ItemSource implements CListTableModel.RowSource {
+
+        private final JSONArray array;
+        private final String[] keys;
+
+        ItemSource(JSONArray array, String[] keys) {
+            this.array = array;
+            this.keys = keys;
+        }
+
+        @Override
+        public String getValue(int row, int column) {
+            JSONObject rowObj = array.optJSONObject(row);
+            return rowObj == null ? "" : rowObj.optString(keys[column], "");
+        }
+    }
+
     @Override
     public void get(UIControl con, Component widget, JSONObject obj) throws JSONException {
         JTable table = (JTable) widget;
         PandaCList clist = (PandaCList) widget;
 
-        for (int j = 0; j < table.getRowCount(); j++) {
-            if (isVisibleRow(table, j)) {
-                obj.put("row", j + 1);
-                break;
-            }
+        int row = firstVisibleRow(table);
+        if (row >= 0) {
+            obj.put("row", row + 1);
         }
         JSONArray array = new JSONArray();
         obj.put("selectdata", array);
-        boolean[] selection = clist.getSelection();
-        for (int j = 0; j < selection.length; j++) {
-            array.put(j, selection[j]);
+        int n = clist.getSelectionLength();
+        for (int j = 0; j < n; j++) {
+            array.put(j, clist.isSelected(j));
         }
     }
 
-    private boolean isVisibleRow(JTable table, int row) {
+    /**
+     * <p>
+     * Returns the first row whose top is inside the viewport, or -1.</p>
+     */
+    private int firstVisibleRow(JTable table) {
+        int rows = table.getRowCount();
+        if (rows == 0) {
+            return -1;
+        }
         JScrollBar vScroll = getVerticalScrollBar(table);
         if (vScroll == null) {
-            return true;
+            return 0;
         }
         BoundedRangeModel model = vScroll.getModel();
-        int rowHeight = table.getRowHeight() * row - model.getValue();
-        return 0 <= rowHeight && rowHeight < model.getExtent();
+        int value = model.getValue();
+        int rowHeight = table.getRowHeight();
+        int row = value <= 0 ? 0 : (value + rowHeight - 1) / rowHeight;
+        if (row < rows && rowHeight * row - value < model.getExtent()) {
+            return row;
+        }
+        return -1;
     }
 
     private JScrollBar getVerticalScrollBar(JTable table) {
@@ -30,12 +30,14 @@ import java.util.List;
 import java.util.Map;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.JComboBox;
+import javax.swing.text.JTextComponent;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.montsuqi.monsiaj.client.UIControl;
+import org.montsuqi.monsiaj.util.JSONFingerprint;
 
 /**
  * <p>
@@ -44,6 +46,9 @@ import org.montsuqi.monsiaj.client.UIControl;
 class ComboHandler extends WidgetHandler {
     
     static final Logger logger = LogManager.getLogger(ComboHandler.class);
+
+    /* client property holding the fingerprint of the items in the model */
+    private static final String ITEMS_FINGERPRINT = "monsia.combo_items";
     
     @Override
     @SuppressWarnings("unchecked")
@@ -53,6 +58,7 @@ class ComboHandler extends WidgetHandler {
         
         this.setCommonAttribute(widget, obj, styleMap);
         
+        boolean itemsChanged = false;
         int count = 0;
         if (obj.has("count")) {
             count = obj.getInt("count");
@@ -66,14 +72,24 @@ class ComboHandler extends WidgetHandler {
             JSONArray array = obj.getJSONArray("item");
             List<String> list = new ArrayList<>();
             list.add("");
+            long hash = JSONFingerprint.objectSeed(0);
             for (int j = 0; j < array.length(); j++) {
                 if (j < count) {
-                    list.add(array.getString(j));
+                    String item = array.getString(j);
+                    list.add(item);
+                    hash = JSONFingerprint.mix(hash ^ JSONFingerprint.of(item));
                 }
             }
-            model.removeAllElements();
-            for (String s : list) {
-                model.addElement(s);
+            Long applied = (Long) combo.getClientProperty(ITEMS_FINGERPRINT);
+            if (applied != null && applied == hash && model.getSize() == list.size()) {
+                suppressed();
+            } else {
+                model.removeAllElements();
+                for (String s : list) {
+                    model.addElement(s);
+                }
+                combo.putClientProperty(ITEMS_FINGERPRINT, hash);
+                itemsChanged = true;
             }
         }
         
@@ -102,7 +118,12 @@ class ComboHandler extends WidgetHandler {
                 }
             }
         }
-        if (entryString != null) {
+        if (entryString != null && !itemsChanged
+                && entryString.equals(combo.getSelectedItem())
+                && (!(editor instanceof JTextComponent)
+                || entryString.equals(((JTextComponent) editor).getText()))) {
+            suppressed();
+        } else if (entryString != null) {
             combo.setSelectedItem(entryString);
             widget.dispatchEvent(new KeyEvent(editor, KeyEvent.KEY_PRESSED, 0, 0, KeyEvent.VK_UNDEFINED, KeyEvent.CHAR_UNDEFINED));
         }
@@ -23,9 +23,7 @@
 package org.montsuqi.monsiaj.client.widgethandlers;
 
 import java.awt.Component;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Map;
 import org.apache.logging.log4j.LogManager;
@@ -65,7 +63,7 @@ public class DownloadHandler extends WidgetHandler {
                 } else {
                     File temp = TempFile.createTempFile("pandadonwload", fileName);
                     temp.deleteOnExit();
-                    int status = con.getClient().getProtocol().getBLOB(oid, new BufferedOutputStream(new FileOutputStream(temp)));
+                    int status = con.getClient().getProtocol().getBLOB(oid, temp, false);
                     if (status == 200) {
                         download.showDialog(fileName, description, temp);
                     }
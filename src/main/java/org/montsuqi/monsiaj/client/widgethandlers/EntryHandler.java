@@ -41,11 +41,10 @@ class EntryHandler extends WidgetHandler {
         this.setCommonAttribute(widget, obj, styleMap);
         this.setEditable(widget, obj);
         if (obj.has("textdata")) {
-            String text = obj.getString("textdata");
-            if (!text.equals(entry.getText())) {
-                entry.setText(text);
+            setText(entry, obj.getString("textdata"));
+            if (entry.getCaretPosition() != 0) {
+                entry.setCaretPosition(0);
             }
-            entry.setCaretPosition(0);
         }
     }
 
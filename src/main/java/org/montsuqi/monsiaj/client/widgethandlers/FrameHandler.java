@@ -46,6 +46,11 @@ class FrameHandler extends WidgetHandler {
         }
     }
 
+    @Override
+    public boolean isDisplayOnly() {
+        return true;
+    }
+
     @Override
     public void get(UIControl con, Component widget,JSONObject obj) throws JSONException {
     }
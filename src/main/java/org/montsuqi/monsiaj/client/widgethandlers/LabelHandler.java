@@ -51,6 +51,11 @@ class LabelHandler extends WidgetHandler {
         }
     }
 
+    @Override
+    public boolean isDisplayOnly() {
+        return true;
+    }
+
     @Override
     public void get(UIControl con, Component widget, JSONObject obj) throws JSONException {
     }
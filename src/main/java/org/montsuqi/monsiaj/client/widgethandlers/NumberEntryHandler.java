@@ -44,6 +44,7 @@ class NumberEntryHandler extends WidgetHandler {
         this.setEditable(widget, obj);
         if (obj.has("numdata")) {
             entry.setValue(new BigDecimal(obj.getDouble("numdata")));
+            setServerText(entry);
         }
     }
 
@@ -46,6 +46,9 @@ class PandaTableHandler extends WidgetHandler {
     static final Logger logger = LogManager.getLogger(PandaTableHandler.class);
     private static final List<String> widgetList;
 
+    /* send every cell instead of the edited ones only */
+    private static final boolean FULL_ROWDATA = System.getProperty("monsia.pandatable.full_rowdata") != null;
+
     static {
         widgetList = new ArrayList<>();
     }
@@ -112,14 +115,23 @@ class PandaTableHandler extends WidgetHandler {
 
         if (obj.has("rowdata")) {
             JSONArray array = obj.getJSONArray("rowdata");
+            int columns = table.getColumns();
+            String[] keys = columnKeys(columns);
             for (int i = 0; i < array.length(); i++) {
                 JSONObject rowObj = array.getJSONObject(i);
-                for (int j = 0; j < table.getColumns(); j++) {
-                    String key = "column" + (j + 1);
-                    if (rowObj.has(key)) {
-                        JSONObject colObj = rowObj.getJSONObject(key);
+                if (rowObj.length() == 0) {
+                    continue;
+                }
+                for (int j = 0; j < columns; j++) {
+                    JSONObject colObj = rowObj.optJSONObject(keys[j]);
+                    if (colObj != null) {
                         if (colObj.has("celldata")) {
-                            table.setCell(i, j, colObj.getString("celldata"));
+                            String data = colObj.getString("celldata");
+                            if (data.equals(tableModel.getValueAt(i, j))) {
+                                suppressed();
+                            } else {
+                                table.setCell(i, j, data);
+                            }
                         }
                         if (colObj.has("fgcolor")) {
                             table.setFGColor(i, j, colObj.getString("fgcolor"));
@@ -132,6 +144,7 @@ class PandaTableHandler extends WidgetHandler {
             }
         }
 
+        table.clearDirty();
         widget.validate();
         if (trow >= 0 && tcolumn >= 0) {
             /*
@@ -172,11 +185,28 @@ class PandaTableHandler extends WidgetHandler {
         obj.put("tcolumn", table.getChangedColumn() + 1);
         obj.put("tvalue", table.getChangedValue());
 
-        int k = 0;
         JSONArray array = new JSONArray();
         obj.put("rowdata", array);
+        int columns = table.getColumns();
+        String[] keys = columnKeys(columns);
+        if (!FULL_ROWDATA) {
+            int k = table.getLastDirtyRow() + 1;
+            for (int i = 0; i < k; i++) {
+                JSONObject rowObj = new JSONObject();
+                array.put(i, rowObj);
+                for (int j = 0; j < columns; j++) {
+                    if (table.isCellDirty(i, j)) {
+                        JSONObject colObj = new JSONObject();
+                        rowObj.put(keys[j], colObj);
+                        colObj.put("celldata", (String) tableModel.getValueAt(i, j));
+                    }
+                }
+            }
+            return;
+        }
+        int k = 0;
         for (int i = 0; i < tableModel.getRowCount(); i++) {
-            for (int j = 0; j < table.getColumns(); j++) {
+            for (int j = 0; j < columns; j++) {
                 String val = (String) tableModel.getValueAt(i, j);
                 if (!val.isEmpty()) {
                     k = i + 1;
@@ -186,10 +216,9 @@ class PandaTableHandler extends WidgetHandler {
         for (int i = 0; i < k; i++) {
             JSONObject rowObj = new JSONObject();
             array.put(i, rowObj);
-            for (int j = 0; j < table.getColumns(); j++) {
-                String key = "column" + (j + 1);
+            for (int j = 0; j < columns; j++) {
                 JSONObject colObj = new JSONObject();
-                rowObj.put(key, colObj);
+                rowObj.put(keys[j], colObj);
                 colObj.put("celldata", (String) tableModel.getValueAt(i, j));
             }
         }
@@ -69,6 +69,11 @@ public class PixmapHandler extends WidgetHandler {
         }
     }
 
+    @Override
+    public boolean isDisplayOnly() {
+        return true;
+    }
+
     @Override
     public void get(UIControl con, Component widget, JSONObject obj) throws JSONException {
     }
@@ -45,6 +45,11 @@ class ProgressBarHandler extends WidgetHandler {
         }
     }
 
+    @Override
+    public boolean isDisplayOnly() {
+        return true;
+    }
+
     @Override
     public void get(UIControl con, Component widget, JSONObject obj) throws JSONException {
         JProgressBar progress = (JProgressBar) widget;
@@ -41,8 +41,8 @@ class TextHandler extends WidgetHandler {
         JTextComponent text = (JTextComponent) widget;
         this.setCommonAttribute(widget, obj, styleMap);
         if (obj.has("textdata")) {
-            text.setText(obj.getString("textdata"));
-            if (!text.isEditable()) {
+            setText(text, obj.getString("textdata"));
+            if (!text.isEditable() && text.getCaretPosition() != 0) {
                 text.setCaretPosition(0);
             }
         }
@@ -60,6 +60,15 @@ public abstract class WidgetHandler {
 
     private static final Map<Class, WidgetHandler> classTable;
 
+    /* client property holding the text last set from screen_data */
+    private static final String SERVER_TEXT = "monsia.server_text";
+
+    /* updates found equal to the widget state; touched on the EDT only */
+    private static int suppressedCount;
+
+    /* "column1", "column2", ...; touched on the EDT only */
+    private static String[] columnKeys = new String[0];
+
     static {
         classTable = new HashMap<>();
         registerHandler(JTextField.class, new EntryHandler());
@@ -88,14 +97,24 @@ public abstract class WidgetHandler {
 
     public abstract void get(UIControl con, Component widget, JSONObject obj) throws JSONException;
 
+    /**
+     * <p>
+     * Returns true if the widget only displays its screen_data: the user can
+     * not change it and setting it has no side effect, so that setting the
+     * same screen_data again may be skipped.</p>
+     */
+    public boolean isDisplayOnly() {
+        return false;
+    }
+
     public void setStyle(Map styleMap, Component widget, String styleName) {
-        Style style;
-        if (styleMap.containsKey(styleName)) {
-            style = (Style) styleMap.get(styleName);
-        } else {
+        Style style = (Style) styleMap.get(styleName);
+        if (style == null) {
             style = Style.DEFAULT_STYLE;
         }
-        style.apply(widget);
+        if (!style.apply(widget)) {
+            suppressedCount++;
+        }
     }
 
     protected void setCommonAttribute(Component widget, JSONObject obj, Map styleMap) throws JSONException {
@@ -113,12 +132,11 @@ public abstract class WidgetHandler {
              */
             boolean flag = state != 4;
 
-            widget.setFocusable(flag);
+            setFocusable(widget, flag);
             if (widget instanceof JTextComponent) {
-                JTextComponent text = (JTextComponent) widget;
-                text.setEditable(flag);
+                setEditable((JTextComponent) widget, flag);
             } else {
-                widget.setEnabled(flag);
+                setEnabled(widget, flag);
             }
         }
         if (obj.has("style")) {
@@ -127,10 +145,98 @@ public abstract class WidgetHandler {
         }
         if (obj.has("visible")) {
             boolean visible = obj.getBoolean("visible");
+            setVisible(widget, visible);
+        }
+    }
+
+    /**
+     * <p>
+     * Records an update that was dropped because the widget already had the
+     * incoming value.</p>
+     */
+    protected static void suppressed() {
+        suppressedCount++;
+    }
+
+    /**
+     * <p>
+     * Returns the number of updates suppressed since the last call, and
+     * resets it.</p>
+     */
+    public static int takeSuppressedCount() {
+        int n = suppressedCount;
+        suppressedCount = 0;
+        return n;
+    }
+
+    protected static void setVisible(Component widget, boolean visible) {
+        if (widget.isVisible() == visible) {
+            suppressedCount++;
+        } else {
             widget.setVisible(visible);
         }
     }
 
+    protected static void setEnabled(Component widget, boolean enabled) {
+        if (widget.isEnabled() == enabled) {
+            suppressedCount++;
+        } else {
+            widget.setEnabled(enabled);
+        }
+    }
+
+    protected static void setFocusable(Component widget, boolean focusable) {
+        if (widget.isFocusable() == focusable) {
+            suppressedCount++;
+        } else {
+            widget.setFocusable(focusable);
+        }
+    }
+
+    protected static void setEditable(JTextComponent text, boolean editable) {
+        if (text.isEditable() == editable) {
+            suppressedCount++;
+        } else {
+            text.setEditable(editable);
+        }
+    }
+
+    /**
+     * <p>
+     * Sets the text unless the component already shows it. Returns true if
+     * the text was changed.</p>
+     */
+    protected static boolean setText(JTextComponent text, String s) {
+        text.putClientProperty(SERVER_TEXT, s);
+        if (s.equals(text.getText())) {
+            suppressedCount++;
+            return false;
+        }
+        text.setText(s);
+        return true;
+    }
+
+    /**
+     * <p>
+     * Records the text the component shows as the text last set from
+     * screen_data, for a handler which does not set it by setText.</p>
+     */
+    protected static void setServerText(JTextComponent text) {
+        text.putClientProperty(SERVER_TEXT, text.getText());
+    }
+
+    /**
+     * <p>
+     * Returns the text last set from screen_data, or null if none was
+     * set.</p>
+     */
+    public static String getServerText(Component widget) {
+        if (widget instanceof JTextComponent) {
+            return (String) ((JTextComponent) widget).getClientProperty(SERVER_TEXT);
+        }
+        return null;
+    }
+
     protected boolean isCommonAttribute(String key) {
         if (key.matches("state")) {
             return true;
@@ -148,8 +254,24 @@ public abstract class WidgetHandler {
         JTextField entry = (JTextField) widget;
         if (obj.has("editable")) {
             boolean editable = obj.getBoolean("editable");
-            entry.setEditable(editable);
+            setEditable(entry, editable);
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the keys "column1" to "columnN" of the list and table rows.</p>
+     */
+    protected static String[] columnKeys(int columns) {
+        String[] keys = columnKeys;
+        if (keys.length < columns) {
+            keys = new String[columns];
+            for (int j = 0; j < columns; j++) {
+                keys[j] = "column" + (j + 1);
+            }
+            columnKeys = keys;
         }
+        return keys;
     }
 
     protected boolean isEditable(String key) {
@@ -184,10 +184,7 @@ abstract class AbstractDocumentHandler extends DefaultHandler {
      * @return the Interface instance.
      */
     protected Interface getInterface(UIControl uiControl) {
-        if (isFinished()) {
-            return new Interface(topLevels, uiControl);
-        }
-        throw new IllegalStateException("parsing is not finished yet");
+        return new Interface(getTopLevels(), uiControl);
     }
 
     /**
@@ -198,8 +195,19 @@ abstract class AbstractDocumentHandler extends DefaultHandler {
      * @return the Interface instance.
      */
     protected Interface getInterface() {
+        return new Interface(getTopLevels());
+    }
+
+    /**
+     * <
+     * p>
+     * Returns the top level widgets as the result of parsing.</p>
+     *
+     * @return the list of top level WidgetInfos.
+     */
+    protected List<WidgetInfo> getTopLevels() {
         if (isFinished()) {
-            return new Interface(topLevels);
+            return topLevels;
         }
         throw new IllegalStateException("parsing is not finished yet");
     }
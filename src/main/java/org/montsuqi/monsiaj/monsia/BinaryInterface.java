@@ -0,0 +1,328 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.monsia;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A compact binary form of parsed interface definitions.</p>
+ * <p>
+ * The WidgetInfo trees are written with a table of interned strings. The
+ * numeric properties x, y, width, height and column_widths are stored as
+ * numbers. read() rebuilds the trees without any XML parsing.</p>
+ */
+public class BinaryInterface {
+
+    private static final int MAGIC = 0x4d474c42; /* MGLB */
+    private static final int VERSION = 1;
+
+    private static final int TYPE_STRING = 0;
+    private static final int TYPE_INT = 1;
+    private static final int TYPE_INT_LIST = 2;
+
+    private static final String[] NUMERIC_KEYS = {"x", "y", "width", "height"};
+    private static final String INT_LIST_KEY = "column_widths";
+    private static final int SMALL_INT_CACHE = 4096;
+    private static final String[] SMALL_INTS = new String[SMALL_INT_CACHE];
+
+    static {
+        for (int i = 0; i < SMALL_INT_CACHE; i++) {
+            SMALL_INTS[i] = Integer.toString(i);
+        }
+    }
+
+    private BinaryInterface() {
+    }
+
+    private static String intToString(int i) {
+        if (i >= 0 && i < SMALL_INT_CACHE) {
+            return SMALL_INTS[i];
+        }
+        return Integer.toString(i);
+    }
+
+    private static boolean isNumericKey(String key) {
+        for (String k : NUMERIC_KEYS) {
+            if (k.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* returns the value as an int only if it is written back identically */
+    private static Integer toInt(String value) {
+        try {
+            int i = Integer.parseInt(value);
+            if (intToString(i).equals(value)) {
+                return i;
+            }
+        } catch (NumberFormatException e) {
+            // not a number
+        }
+        return null;
+    }
+
+    private static int[] toIntList(String value) {
+        String[] tokens = value.split(",", -1);
+        int[] ints = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            Integer v = toInt(tokens[i]);
+            if (v == null) {
+                return null;
+            }
+            ints[i] = v;
+        }
+        return ints;
+    }
+
+    private static class Writer {
+
+        private final Map<String, Integer> stringIndex = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final DataOutputStream body;
+
+        Writer(DataOutputStream body) {
+            this.body = body;
+        }
+
+        void string(String s) throws IOException {
+            if (s == null) {
+                body.writeInt(-1);
+                return;
+            }
+            Integer index = stringIndex.get(s);
+            if (index == null) {
+                index = strings.size();
+                strings.add(s);
+                stringIndex.put(s, index);
+            }
+            body.writeInt(index);
+        }
+
+        void properties(Map<String, String> properties) throws IOException {
+            body.writeInt(properties.size());
+            for (Map.Entry<String, String> e : properties.entrySet()) {
+                String key = e.getKey();
+                String value = e.getValue();
+                string(key);
+                if (value != null && isNumericKey(key) && toInt(value) != null) {
+                    body.writeByte(TYPE_INT);
+                    body.writeInt(toInt(value));
+                } else if (value != null && INT_LIST_KEY.equals(key) && toIntList(value) != null) {
+                    int[] ints = toIntList(value);
+                    body.writeByte(TYPE_INT_LIST);
+                    body.writeInt(ints.length);
+                    for (int i : ints) {
+                        body.writeInt(i);
+                    }
+                } else {
+                    body.writeByte(TYPE_STRING);
+                    string(value);
+                }
+            }
+        }
+
+        void widget(WidgetInfo info) throws IOException {
+            string(info.getClassName());
+            string(info.getName());
+            properties(info.getProperties());
+            List signals = info.getSignals();
+            body.writeInt(signals.size());
+            for (Object o : signals) {
+                SignalInfo signal = (SignalInfo) o;
+                string(signal.getName());
+                string(signal.getHandler());
+                string(signal.getObject());
+                body.writeBoolean(signal.isAfter());
+            }
+            List accels = info.getAccels();
+            body.writeInt(accels.size());
+            for (Object o : accels) {
+                AccelInfo accel = (AccelInfo) o;
+                body.writeInt(accel.getKey());
+                body.writeInt(accel.getModifiers());
+                string(accel.getSignal());
+            }
+            List children = info.getChildren();
+            body.writeInt(children.size());
+            for (Object o : children) {
+                ChildInfo child = (ChildInfo) o;
+                properties(child.getProperties());
+                WidgetInfo childInfo = child.getWidgetInfo();
+                body.writeBoolean(childInfo != null);
+                if (childInfo != null) {
+                    widget(childInfo);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Writes the WidgetInfo trees in the binary form.</p>
+     */
+    public static void write(List<WidgetInfo> roots, OutputStream output) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        Writer writer = new Writer(body);
+        body.writeInt(roots.size());
+        for (WidgetInfo info : roots) {
+            writer.widget(info);
+        }
+        body.flush();
+
+        DataOutputStream out = new DataOutputStream(output);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(writer.strings.size());
+        for (String s : writer.strings) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+        bytes.writeTo(out);
+        out.flush();
+    }
+
+    private static class Reader {
+
+        private final DataInputStream in;
+        private final String[] strings;
+
+        Reader(DataInputStream in, String[] strings) {
+            this.in = in;
+            this.strings = strings;
+        }
+
+        String string() throws IOException {
+            int index = in.readInt();
+            if (index == -1) {
+                return null;
+            }
+            if (index < 0 || index >= strings.length) {
+                throw new IOException("invalid string index:" + index);
+            }
+            return strings[index];
+        }
+
+        void properties(Map<String, String> properties) throws IOException {
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String key = string();
+                int type = in.readByte();
+                switch (type) {
+                    case TYPE_STRING:
+                        properties.put(key, string());
+                        break;
+                    case TYPE_INT:
+                        properties.put(key, intToString(in.readInt()));
+                        break;
+                    case TYPE_INT_LIST:
+                        int length = in.readInt();
+                        StringBuilder buf = new StringBuilder(length * 4);
+                        for (int j = 0; j < length; j++) {
+                            if (j > 0) {
+                                buf.append(',');
+                            }
+                            buf.append(in.readInt());
+                        }
+                        properties.put(key, buf.toString());
+                        break;
+                    default:
+                        throw new IOException("invalid property type:" + type);
+                }
+            }
+        }
+
+        WidgetInfo widget(WidgetInfo parent) throws IOException {
+            WidgetInfo info = new WidgetInfo(string(), string());
+            info.setParent(parent);
+            properties(info.getProperties());
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                info.addSignalInfo(new SignalInfo(string(), string(), string(), in.readBoolean()));
+            }
+            n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                int key = in.readInt();
+                int modifiers = in.readInt();
+                info.addAccelInfo(new AccelInfo(key, modifiers, string()));
+            }
+            n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                ChildInfo child = new ChildInfo();
+                Map<String, String> childProperties = new HashMap<>();
+                properties(childProperties);
+                child.setProperties(childProperties);
+                if (in.readBoolean()) {
+                    child.setWidgetInfo(widget(info));
+                }
+                info.addChild(child);
+            }
+            return info;
+        }
+    }
+
+    /**
+     * <p>
+     * Reads WidgetInfo trees written by write().</p>
+     *
+     * @throws IOException if the data is not in the binary form or is of
+     * another format version.
+     */
+    public static List<WidgetInfo> read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a binary interface");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported binary interface version:" + version);
+        }
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] b = new byte[in.readInt()];
+            in.readFully(b);
+            strings[i] = new String(b, StandardCharsets.UTF_8);
+        }
+        Reader reader = new Reader(in, strings);
+        int n = in.readInt();
+        List<WidgetInfo> roots = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            roots.add(reader.widget(null));
+        }
+        return roots;
+    }
+}
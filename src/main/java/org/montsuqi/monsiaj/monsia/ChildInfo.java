@@ -53,7 +53,7 @@ public class ChildInfo {
         this.child = child;
     }
 
-    public Map getProperties() {
+    public Map<String,String> getProperties() {
         return properties;
     }
 
@@ -68,4 +68,18 @@ final class FakeEncodingInputStream extends InputStream {
 		}
 		return b;
 	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (index < headerBytes.length) {
+			int n = Math.min(len, headerBytes.length - index);
+			System.arraycopy(headerBytes, index, b, off, n);
+			index += n;
+			return n;
+		}
+		return in.read(b, off, len);
+	}
 }
@@ -32,6 +32,7 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -97,16 +98,19 @@ public class Interface {
     public void setFocusWidget(Component widget) {
         focusWidget = widget;
     }
-    private static final SAXParser saxParser;
+    /* SAXParser is not thread-safe, screen definitions are parsed on several threads */
+    private static final ThreadLocal<SAXParser> saxParser;
 
     static {
-        SAXParserFactory parserFactory = SAXParserFactory.newInstance();
-        parserFactory.setNamespaceAware(true);
-        try {
-            saxParser = parserFactory.newSAXParser();
-        } catch (ParserConfigurationException | SAXException e) {
-            throw new ExceptionInInitializerError(e);
-        }
+        saxParser = ThreadLocal.withInitial(() -> {
+            SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+            parserFactory.setNamespaceAware(true);
+            try {
+                return parserFactory.newSAXParser();
+            } catch (ParserConfigurationException | SAXException e) {
+                throw new InterfaceBuildingException(e);
+            }
+        });
     }
     private static final int OLD_PROLOGUE_LENGTH = 128;
 
@@ -132,27 +136,27 @@ public class Interface {
      * @return an Interface instance.
      */
     public static Interface parseInput(InputStream input, UIControl uiControl) {
-        try {
-            if (!(input instanceof BufferedInputStream)) {
-                input = new BufferedInputStream(input);
-            }
-
-            String handlerClassName = System.getProperty("monsia.document.handler");
-            if (handlerClassName == null) {
-                handlerClassName = isNewScreenDefinition(input) ? NEW_HANDLER : OLD_HANDLER;
-            }
-
-            Class handlerClass = Class.forName(handlerClassName);
-            AbstractDocumentHandler handler = (AbstractDocumentHandler) handlerClass.newInstance();
-
-            saxParser.parse(input, handler);
-            return handler.getInterface(uiControl);
-        } catch (IOException | ClassNotFoundException | InstantiationException | IllegalAccessException | SAXException e) {
-            throw new InterfaceBuildingException(e);
-        }
+        return new Interface(parseWidgetInfo(input, false), uiControl);
     }
 
     public static Interface parseInput(InputStream input) {
+        return new Interface(parseWidgetInfo(input, true));
+    }
+
+    /**
+     * <p>
+     * Parses the interface definition into WidgetInfo trees without building
+     * any widget.</p>
+     * <p>
+     * Glade 1.0 files on disk are EUC-JP without encoding declaration. Set
+     * <var>fakeEncoding</var> to read them. Definitions received from the
+     * server do not need it.</p>
+     *
+     * @param input source input stream from which the Glade file is read.
+     * @param fakeEncoding true to read old definitions as EUC-JP.
+     * @return the top level WidgetInfos.
+     */
+    public static List<WidgetInfo> parseWidgetInfo(InputStream input, boolean fakeEncoding) {
         try {
             if (!(input instanceof BufferedInputStream)) {
                 input = new BufferedInputStream(input);
@@ -166,11 +170,11 @@ public class Interface {
             Class handlerClass = Class.forName(handlerClassName);
             AbstractDocumentHandler handler = (AbstractDocumentHandler) handlerClass.newInstance();
 
-            if (handlerClassName.equals(OLD_HANDLER)) {
+            if (fakeEncoding && handlerClassName.equals(OLD_HANDLER)) {
                 input = new FakeEncodingInputStream(input);
             }
-            saxParser.parse(input, handler);
-            return handler.getInterface();
+            saxParser.get().parse(input, handler);
+            return handler.getTopLevels();
         } catch (IOException | ClassNotFoundException | InstantiationException | IllegalAccessException | SAXException e) {
             throw new InterfaceBuildingException(e);
         }
@@ -332,6 +336,10 @@ public class Interface {
         return widgetLongNameTable.containsKey(name);
     }
 
+    public Map<String, Component> getWidgetsByLongName() {
+        return Collections.unmodifiableMap(widgetLongNameTable);
+    }
+
     public void setWidgetLongNameTable(String longName, Component widget) {
         if (widgetLongNameTable.containsKey(longName)) {
             logger.warn("widget named \"{0}\" already exists, replaceing with new one.", longName);
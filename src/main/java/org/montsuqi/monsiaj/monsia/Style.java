@@ -31,12 +31,17 @@ import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import javax.swing.JComponent;
+import org.montsuqi.monsiaj.util.InternCache;
 import org.montsuqi.monsiaj.util.SafeColorDecoder;
 
 public class Style {
 
     public static final Style DEFAULT_STYLE;
 
+    /* client property holding the Style last applied to a JComponent */
+    private static final String APPLIED_STYLE = "monsia.applied_style";
+
     static {
         DEFAULT_STYLE = new Style(null);
     }
@@ -51,16 +56,33 @@ public class Style {
         background = SystemColor.text;
     }
 
-    public void apply(Component widget) {
-        if (font != null) {
+    /**
+     * <p>
+     * Applies the style to the widget. A style applied last to the same
+     * JComponent is skipped as a whole, and properties the widget already has
+     * are not set again, since setFont and the color setters trigger a
+     * relayout or a repaint even when the value is unchanged.</p>
+     *
+     * @return false if the style was already applied.
+     */
+    public boolean apply(Component widget) {
+        JComponent c = widget instanceof JComponent ? (JComponent) widget : null;
+        if (c != null && c.getClientProperty(APPLIED_STYLE) == this) {
+            return false;
+        }
+        if (font != null && !(widget.isFontSet() && font.equals(widget.getFont()))) {
             widget.setFont(font);
         }
-        if (foreground != null) {
+        if (foreground != null && !(widget.isForegroundSet() && foreground.equals(widget.getForeground()))) {
             widget.setForeground(foreground);
         }
-        if (background != null) {
+        if (background != null && !(widget.isBackgroundSet() && background.equals(widget.getBackground()))) {
             widget.setBackground(background);
         }
+        if (c != null) {
+            c.putClientProperty(APPLIED_STYLE, this);
+        }
+        return true;
     }
 
     public static Map load(InputStream in) throws IOException {
@@ -84,7 +106,7 @@ public class Style {
                 style = (Style) styles.get(styleName);
             }
             if ("font".equals(attribute)) {
-                Font font = Font.decode(value);
+                Font font = InternCache.font(value);
                 style.setFont(font);
             } else if ("foreground".equals(attribute) || "fg".equals(attribute)) {  //$NON-NLS-2$
                 Color fg = SafeColorDecoder.decode(value);
@@ -25,10 +25,10 @@ package org.montsuqi.monsiaj.monsia.builders;
 import java.awt.Component;
 import java.awt.Container;
 import javax.swing.JComponent;
-import javax.swing.table.DefaultTableModel;
 import org.montsuqi.monsiaj.monsia.ChildInfo;
 import org.montsuqi.monsiaj.monsia.Interface;
 import org.montsuqi.monsiaj.monsia.WidgetInfo;
+import org.montsuqi.monsiaj.widgets.CListTableModel;
 import org.montsuqi.monsiaj.widgets.PandaCList;
 
 /** <p>A builder to create clist widgets.</p>
@@ -41,14 +41,7 @@ class CListBuilder extends ContainerBuilder {
         int cCount = info.getChildren().size();
 
         PandaCList clist = (PandaCList) parent;
-        // make all cells uneditable.
-        clist.setModel(new DefaultTableModel(0, cCount) {
-
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        });
+        clist.setModel(new CListTableModel(cCount));
 
         for (int i = 0; i < cCount; i++) {
             ChildInfo cInfo = info.getChild(i);
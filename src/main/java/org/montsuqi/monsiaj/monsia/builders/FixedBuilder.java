@@ -58,12 +58,12 @@ class FixedBuilder extends ContainerBuilder {
             int x = 0;
             int y = 0;
             child = buildWidget(xml, wInfo, parent);
-            Map properties = cInfo.getProperties();
+            Map<String, String> properties = cInfo.getProperties();
             if (properties.containsKey("x")) { 
-                x = ParameterConverter.toInteger((String) properties.get("x")); 
+                x = ParameterConverter.toInteger(properties.get("x")); 
             }
             if (properties.containsKey("y")) { 
-                y = ParameterConverter.toInteger((String) properties.get("y")); 
+                y = ParameterConverter.toInteger(properties.get("y")); 
             }
 
             // Since JTable itself does not have capability to scroll,
@@ -60,18 +60,18 @@ class TableBuilder extends ContainerBuilder {
 			Component child = null;
 			TableConstraints tc = new TableConstraints();
 			child = buildWidget(xml, wInfo, parent);
-			Map properties = cInfo.getProperties();
+			Map<String, String> properties = cInfo.getProperties();
 			if (properties.containsKey(LEFT_ATTACH_KEY)) {
-				tc.leftAttach = ParameterConverter.toInteger((String)properties.get(LEFT_ATTACH_KEY));
+				tc.leftAttach = ParameterConverter.toInteger(properties.get(LEFT_ATTACH_KEY));
 			}
 			if (properties.containsKey(RIGHT_ATTACH_KEY)) {
-				tc.rightAttach = ParameterConverter.toInteger((String)properties.get(RIGHT_ATTACH_KEY));
+				tc.rightAttach = ParameterConverter.toInteger(properties.get(RIGHT_ATTACH_KEY));
 			}
 			if (properties.containsKey(TOP_ATTACH_KEY)) {
-				tc.topAttach = ParameterConverter.toInteger((String)properties.get(TOP_ATTACH_KEY));
+				tc.topAttach = ParameterConverter.toInteger(properties.get(TOP_ATTACH_KEY));
 			}
 			if (properties.containsKey(BOTTOM_ATTACH_KEY)) {
-				tc.bottomAttach = ParameterConverter.toInteger((String)properties.get(BOTTOM_ATTACH_KEY));
+				tc.bottomAttach = ParameterConverter.toInteger(properties.get(BOTTOM_ATTACH_KEY));
 			}
 			if (properties.containsKey(X_KEY)) {
 				// x_options = ParameterConverter.toInteger(value);
@@ -80,22 +80,22 @@ class TableBuilder extends ContainerBuilder {
 				// y_options = ParameterConverter.toInteger(value);
 			}
 			if (properties.containsKey(XEXPAND_KEY)) {
-				tc.xExpand = ParameterConverter.toBoolean((String)properties.get(XEXPAND_KEY));
+				tc.xExpand = ParameterConverter.toBoolean(properties.get(XEXPAND_KEY));
 			}
 			if (properties.containsKey(YEXPAND_KEY)) {
-				tc.yExpand = ParameterConverter.toBoolean((String)properties.get(YEXPAND_KEY));
+				tc.yExpand = ParameterConverter.toBoolean(properties.get(YEXPAND_KEY));
 			}
 			if (properties.containsKey(XSHRINK_KEY)) {
-				tc.xShrink = ParameterConverter.toBoolean((String)properties.get(XSHRINK_KEY));
+				tc.xShrink = ParameterConverter.toBoolean(properties.get(XSHRINK_KEY));
 			}
 			if (properties.containsKey(YSHRINK_KEY)) {
-				tc.yShrink = ParameterConverter.toBoolean((String)properties.get(YSHRINK_KEY));
+				tc.yShrink = ParameterConverter.toBoolean(properties.get(YSHRINK_KEY));
 			}
 			if (properties.containsKey(XPAD_KEY)) {
-				tc.xPadding = ParameterConverter.toInteger((String)properties.get(XPAD_KEY));
+				tc.xPadding = ParameterConverter.toInteger(properties.get(XPAD_KEY));
 			}
 			if (properties.containsKey(YPAD_KEY)) {
-				tc.yPadding = ParameterConverter.toInteger((String)properties.get(YPAD_KEY));
+				tc.yPadding = ParameterConverter.toInteger(properties.get(YPAD_KEY));
 			}
 			parent.add(child);
 			layout.setConstraints(child, tc);
@@ -0,0 +1,98 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.montsuqi.monsiaj.tools;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import javax.swing.table.DefaultTableModel;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.montsuqi.monsiaj.client.UIControl;
+import org.montsuqi.monsiaj.client.widgethandlers.WidgetHandler;
+import org.montsuqi.monsiaj.widgets.CListTableModel;
+import org.montsuqi.monsiaj.widgets.PandaCList;
+
+/**
+ * <p>
+ * Compares setting CList items into a DefaultTableModel cell by cell with
+ * loading them into the columnar CListTableModel, for lists of 100, 1k and
+ * 10k rows. Each update is merged into the screen_data of a window first,
+ * as a response is, and only setting the list is timed.</p>
+ * <p>
+ * Lists of monsia.pandaclist.virtual_rows rows or more are read lazily by the
+ * columnar model; set it to 0 to load every list.</p>
+ * <p>
+ * usage: CListBench [columns] [iterations]</p>
+ */
+public class CListBench {
+
+    private static final int[] ROWS = {100, 1000, 10000};
+
+    private static int windows = 0;
+
+    private static JSONObject makeList(int rows, int columns, int seed) throws JSONException {
+        JSONArray items = new JSONArray();
+        for (int r = 0; r < rows; r++) {
+            JSONObject item = new JSONObject();
+            for (int c = 1; c <= columns; c++) {
+                item.put("column" + c, "cell" + (r + seed) + "-" + c);
+            }
+            items.put(item);
+        }
+        JSONObject clist = new JSONObject();
+        clist.put("count", rows);
+        clist.put("item", items);
+        return clist;
+    }
+
+    /*
+     * Merges the updates into the screen_data of a window of its own, as a
+     * response does, and times setting the list from it.
+     */
+    private static double run(UIControl con, PandaCList clist, JSONObject[] updates, int rows, int columns, int iterations) throws JSONException {
+        WidgetHandler handler = WidgetHandler.getHandler(PandaCList.class);
+        Map styleMap = new HashMap();
+        String window = "bench" + windows++;
+        clist.setName(window + ".clist");
+        JSONObject tmpl = new JSONObject();
+        tmpl.put("clist", makeList(rows, columns, 0));
+        con.addScreenTemplate(window, tmpl);
+        long total = 0;
+        for (int i = 0; i < iterations; i++) {
+            JSONObject upd = new JSONObject();
+            upd.put("clist", updates[i % updates.length]);
+            con.updateScreenTemplate(window, upd);
+            long st = System.nanoTime();
+            handler.set(con, clist, tmpl.getJSONObject("clist"), styleMap);
+            total += System.nanoTime() - st;
+        }
+        return total / 1e6 / iterations;
+    }
+
+    public static void main(String[] args) throws JSONException, IOException {
+        int columns = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        UIControl con = new UIControl(null, CListBench.class.getResource("/style.properties"), 0);
+
+        for (int rows : ROWS) {
+            JSONObject[] updates = {makeList(rows, columns, 0), makeList(rows, columns, 1)};
+            JSONObject[] same = {updates[0]};
+            for (int pass = 0; pass < 2; pass++) {
+                PandaCList legacy = new PandaCList();
+                legacy.setModel(new DefaultTableModel(0, columns));
+                PandaCList columnar = new PandaCList();
+                columnar.setModel(new CListTableModel(columns));
+                double cells = run(con, legacy, updates, rows, columns, iterations);
+                double bulk = run(con, columnar, updates, rows, columns, iterations);
+                double cellsSame = run(con, legacy, same, rows, columns, iterations);
+                double bulkSame = run(con, columnar, same, rows, columns, iterations);
+                System.out.printf("%s rows:%d changed cells:%.3fms columnar:%.3fms unchanged cells:%.3fms columnar:%.3fms%n",
+                        pass == 0 ? "warmup" : "load  ", rows, cells, bulk, cellsSame, bulkSame);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.montsuqi.monsiaj.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import org.montsuqi.monsiaj.monsia.BinaryInterface;
+import org.montsuqi.monsiaj.monsia.Interface;
+import org.montsuqi.monsiaj.monsia.WidgetInfo;
+
+/**
+ * <p>
+ * Precompiles Glade files into the form of BinaryInterface.</p>
+ * <p>
+ * usage: CompileGlade input.glade|input_dir [output_dir]</p>
+ * <p>
+ * Each foo.glade is written to foo.bin in output_dir(default: the same
+ * directory as the input).</p>
+ */
+public class CompileGlade {
+
+    static File[] listGladeFiles(File input) {
+        if (input.isDirectory()) {
+            File[] files = input.listFiles((File dir, String name) -> name.endsWith(".glade"));
+            return files == null ? new File[0] : files;
+        }
+        return new File[]{input};
+    }
+
+    static List<WidgetInfo> parse(File gladeFile) throws IOException {
+        try (InputStream input = new FileInputStream(gladeFile)) {
+            return Interface.parseWidgetInfo(input, true);
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("usage: CompileGlade input.glade|input_dir [output_dir]");
+            return;
+        }
+        File input = new File(args[0]);
+        for (File gladeFile : listGladeFiles(input)) {
+            File outputDir = args.length > 1 ? new File(args[1]) : gladeFile.getAbsoluteFile().getParentFile();
+            String fname = gladeFile.getName();
+            int dot = fname.lastIndexOf('.');
+            File binFile = new File(outputDir, (dot > 0 ? fname.substring(0, dot) : fname) + ".bin");
+            try {
+                List<WidgetInfo> roots = parse(gladeFile);
+                try (OutputStream output = new BufferedOutputStream(new FileOutputStream(binFile))) {
+                    BinaryInterface.write(roots, output);
+                }
+                System.out.println(gladeFile + " -> " + binFile + " (" + gladeFile.length() + " -> " + binFile.length() + " bytes)");
+            } catch (IOException | RuntimeException e) {
+                System.out.println(gladeFile + ": " + e);
+            }
+        }
+    }
+}
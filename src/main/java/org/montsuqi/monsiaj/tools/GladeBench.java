@@ -0,0 +1,72 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.montsuqi.monsiaj.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.montsuqi.monsiaj.monsia.BinaryInterface;
+import org.montsuqi.monsiaj.monsia.Interface;
+import org.montsuqi.monsiaj.util.StreamTransfer;
+
+/**
+ * <p>
+ * Compares the time to load screen definitions by SAX parsing with the time
+ * to load the precompiled form of BinaryInterface.</p>
+ * <p>
+ * usage: GladeBench input.glade|input_dir [iterations]</p>
+ */
+public class GladeBench {
+
+    private interface Load {
+
+        void run(byte[] data) throws IOException;
+    }
+
+    private static double measure(byte[] data, int iterations, Load load) throws IOException {
+        // warmup
+        for (int i = 0; i < iterations; i++) {
+            load.run(data);
+        }
+        long st = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            load.run(data);
+        }
+        return (System.nanoTime() - st) / 1e6 / iterations;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("usage: GladeBench input.glade|input_dir [iterations]");
+            return;
+        }
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        double saxTotal = 0;
+        double binaryTotal = 0;
+        for (File gladeFile : CompileGlade.listGladeFiles(new File(args[0]))) {
+            try {
+                byte[] glade;
+                try (InputStream in = new FileInputStream(gladeFile)) {
+                    glade = StreamTransfer.readAll(in, gladeFile.length()).toByteArray();
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                BinaryInterface.write(CompileGlade.parse(gladeFile), out);
+                byte[] binary = out.toByteArray();
+
+                double sax = measure(glade, iterations, (byte[] data) -> Interface.parseWidgetInfo(new ByteArrayInputStream(data), true));
+                double bin = measure(binary, iterations, (byte[] data) -> BinaryInterface.read(new ByteArrayInputStream(data)));
+                saxTotal += sax;
+                binaryTotal += bin;
+                System.out.printf("%-32s %8d bytes %8.3f ms sax %8d bytes %8.3f ms binary%n", gladeFile.getName(), glade.length, sax, binary.length, bin);
+            } catch (IOException | RuntimeException e) {
+                System.out.println(gladeFile + ": " + e);
+            }
+        }
+        System.out.printf("total %8.3f ms sax %8.3f ms binary%n", saxTotal, binaryTotal);
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.montsuqi.monsiaj.tools;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.montsuqi.monsiaj.client.Protocol;
+
+/**
+ * <p>
+ * Drives the interactive, background and BLOB lanes of Protocol concurrently
+ * against a local stub server, and reports the send_event latency with and
+ * without the other lanes busy.</p>
+ * <p>
+ * The stub answers send_event in 20ms, get_message and list_downloads in
+ * 50ms, and sends BLOBs of 1MB at about 4MB/s. A call failing on any lane,
+ * for example with a mismatched JSON-RPC id, is counted as an error.</p>
+ * <p>
+ * usage: LaneStress [seconds]</p>
+ */
+public class LaneStress {
+
+    private static final int BLOB_SIZE = 1024 * 1024;
+    private static final int BLOB_CHUNK = 64 * 1024;
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                bytes.write(buf, 0, n);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void handleRPC(HttpExchange exchange) throws IOException {
+        JSONObject req = new JSONObject(new String(readBody(exchange), "UTF-8"));
+        Object result;
+        switch (req.getString("method")) {
+            case "get_server_info": {
+                JSONObject info = new JSONObject();
+                info.put("protocol_version", "1.0");
+                info.put("application_version", "stress");
+                info.put("server_type", "stress");
+                result = info;
+                break;
+            }
+            case "start_session": {
+                String root = "http://localhost:" + exchange.getLocalAddress().getPort();
+                JSONObject meta = new JSONObject();
+                meta.put("session_id", "stress");
+                JSONObject session = new JSONObject();
+                session.put("meta", meta);
+                session.put("app_rpc_endpoint_uri", root + "/rpc/");
+                session.put("app_rest_api_uri_root", root + "/rest/");
+                result = session;
+                break;
+            }
+            case "send_event":
+                sleep(20);
+                result = new JSONObject().put("window_data", new JSONObject());
+                break;
+            case "list_downloads":
+                sleep(50);
+                result = new JSONArray();
+                break;
+            default:
+                sleep(50);
+                result = new JSONObject();
+                break;
+        }
+        JSONObject res = new JSONObject();
+        res.put("jsonrpc", "2.0");
+        res.put("id", req.getInt("id"));
+        res.put("result", result);
+        byte[] body = res.toString().getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void handleBLOB(HttpExchange exchange) throws IOException {
+        if ("POST".equals(exchange.getRequestMethod())) {
+            readBody(exchange);
+            exchange.getResponseHeaders().set("x-blob-id", "1");
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(200, BLOB_SIZE);
+        byte[] chunk = new byte[BLOB_CHUNK];
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int sent = 0; sent < BLOB_SIZE; sent += BLOB_CHUNK) {
+                out.write(chunk);
+                sleep(15);
+            }
+        }
+    }
+
+    private interface Call {
+
+        void run() throws Exception;
+    }
+
+    private static Thread loop(final String name, final long until, final AtomicInteger calls, final AtomicInteger errors, final List<Long> latencies, final Call call) {
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (System.currentTimeMillis() < until) {
+                    long st = System.nanoTime();
+                    try {
+                        call.run();
+                        calls.incrementAndGet();
+                        if (latencies != null) {
+                            latencies.add(System.nanoTime() - st);
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                        System.out.println(name + ": " + e);
+                    }
+                }
+            }
+        }, name);
+        t.start();
+        return t;
+    }
+
+    private static void run(String label, final Protocol protocol, int seconds, boolean busy) throws Exception {
+        long until = System.currentTimeMillis() + seconds * 1000L;
+        AtomicInteger events = new AtomicInteger();
+        AtomicInteger pings = new AtomicInteger();
+        AtomicInteger blobs = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+        final File file = File.createTempFile("lanestress", ".bin");
+        file.deleteOnExit();
+        final byte[] upload = new byte[BLOB_SIZE / 4];
+
+        List<Thread> threads = new ArrayList<>();
+        threads.add(loop("interactive", until, events, errors, latencies, new Call() {
+            @Override
+            public void run() throws Exception {
+                protocol.sendEvent(new JSONObject());
+            }
+        }));
+        if (busy) {
+            threads.add(loop("background", until, pings, errors, null, new Call() {
+                @Override
+                public void run() throws Exception {
+                    protocol.ping(true, true);
+                }
+            }));
+            threads.add(loop("blob-get", until, blobs, errors, null, new Call() {
+                @Override
+                public void run() throws Exception {
+                    protocol.getBLOB("1", file, true);
+                }
+            }));
+            threads.add(loop("blob-post", until, blobs, errors, null, new Call() {
+                @Override
+                public void run() throws Exception {
+                    protocol.postBLOB(upload);
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        long sum = 0;
+        for (long l : sorted) {
+            sum += l;
+        }
+        double avg = sorted.isEmpty() ? 0 : sum / 1e6 / sorted.size();
+        double p99 = sorted.isEmpty() ? 0 : sorted.get((int) (sorted.size() * 0.99)) / 1e6;
+        System.out.printf("%-6s send_event:%d avg:%.1fms p99:%.1fms ping:%d blob:%d errors:%d%n",
+                label, events.get(), avg, p99, pings.get(), blobs.get(), errors.get());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/rpc/", LaneStress::handleRPC);
+        server.createContext("/rest/", LaneStress::handleBLOB);
+        server.start();
+        try {
+            Protocol protocol = new Protocol("http://localhost:" + server.getAddress().getPort() + "/rpc/", "stress", "stress", false);
+            protocol.startSession();
+            run("idle", protocol, seconds, false);
+            run("busy", protocol, seconds, true);
+        } finally {
+            server.stop(0);
+            executor.shutdown();
+        }
+    }
+}
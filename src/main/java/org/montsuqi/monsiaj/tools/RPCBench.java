@@ -0,0 +1,108 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.montsuqi.monsiaj.tools;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.json.JSONObject;
+import org.montsuqi.monsiaj.client.Protocol;
+
+/**
+ * <p>
+ * Measures the rpc_total time of send_event against a local stub JSON-RPC
+ * server, with and without connection keep-alive.</p>
+ * <p>
+ * usage: RPCBench [iterations]</p>
+ */
+public class RPCBench {
+
+    private static final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                bytes.write(buf, 0, n);
+            }
+        }
+        JSONObject req = new JSONObject(bytes.toString("UTF-8"));
+        JSONObject result = new JSONObject();
+        switch (req.getString("method")) {
+            case "get_server_info":
+                result.put("protocol_version", "1.0");
+                result.put("application_version", "bench");
+                result.put("server_type", "bench");
+                break;
+            case "start_session":
+                String root = "http://localhost:" + exchange.getLocalAddress().getPort();
+                JSONObject meta = new JSONObject();
+                meta.put("session_id", "bench");
+                result.put("meta", meta);
+                result.put("app_rpc_endpoint_uri", root + "/rpc/");
+                result.put("app_rest_api_uri_root", root + "/rest/");
+                break;
+            default:
+                result.put("window_data", new JSONObject());
+                break;
+        }
+        JSONObject res = new JSONObject();
+        res.put("jsonrpc", "2.0");
+        res.put("id", req.getInt("id"));
+        res.put("result", result);
+        byte[] body = res.toString().getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void run(String label, String uri, int iterations) throws IOException, GeneralSecurityException {
+        clientPorts.clear();
+        Protocol protocol = new Protocol(uri, "bench", "bench", false);
+        protocol.startSession();
+        long total = 0;
+        for (int i = 0; i < iterations; i++) {
+            long st = System.nanoTime();
+            protocol.sendEvent(new JSONObject());
+            total += System.nanoTime() - st;
+        }
+        System.out.printf("%-12s calls:%d rpc_total avg:%.3fms connections:%d%n",
+                label, iterations, total / 1000000.0 / iterations, clientPorts.size());
+    }
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.createContext("/", RPCBench::handle);
+            server.start();
+            String uri = "http://localhost:" + server.getAddress().getPort() + "/rpc/";
+            try {
+                run("warmup", uri, iterations);
+                System.setProperty("monsia.http.disable_keepalive", "1");
+                run("no-keepalive", uri, iterations);
+                System.clearProperty("monsia.http.disable_keepalive");
+                run("keepalive", uri, iterations);
+            } finally {
+                server.stop(0);
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            System.out.println(e);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.montsuqi.monsiaj.tools;
+
+import java.util.Random;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.montsuqi.monsiaj.client.ScreenSchema;
+
+/**
+ * <p>
+ * Compares the recursive merge of screen_data into the template with the
+ * merge by the compiled ScreenSchema.</p>
+ * <p>
+ * The screen resembles a large ORCA screen: entries and labels, and lists of
+ * rows with a selection and colors.</p>
+ * <p>
+ * usage: ScreenDataBench [entries] [lists] [rows] [iterations]</p>
+ */
+public class ScreenDataBench {
+
+    private static JSONObject makeScreen(Random random, int entries, int lists, int rows, boolean sparse) throws JSONException {
+        JSONObject window = new JSONObject();
+        for (int i = 0; i < entries; i++) {
+            if (sparse && random.nextInt(4) == 0) {
+                continue;
+            }
+            JSONObject entry = new JSONObject();
+            entry.put("style", "");
+            entry.put("visible", true);
+            entry.put("editable", random.nextBoolean());
+            entry.put("textdata", sparse && random.nextInt(10) == 0 ? (Object) 1 : "text" + random.nextInt(1000));
+            window.put("entry" + i, entry);
+            JSONObject num = new JSONObject();
+            num.put("numdata", random.nextDouble() * 1000);
+            window.put("numberentry" + i, num);
+        }
+        for (int l = 0; l < lists; l++) {
+            JSONObject clist = new JSONObject();
+            clist.put("count", rows);
+            clist.put("row", random.nextInt(rows));
+            clist.put("rowattr", 0);
+            JSONArray items = new JSONArray();
+            JSONArray select = new JSONArray();
+            JSONArray fgcolor = new JSONArray();
+            int n = sparse ? rows / 2 : rows;
+            for (int r = 0; r < n; r++) {
+                JSONObject item = new JSONObject();
+                for (int c = 1; c <= 10; c++) {
+                    item.put("column" + c, "cell" + r + "-" + c);
+                }
+                items.put(item);
+                select.put(random.nextBoolean());
+                fgcolor.put("");
+            }
+            clist.put("item", items);
+            clist.put("selectdata", select);
+            clist.put("fgcolor", fgcolor);
+            window.put("clist" + l, clist);
+        }
+        JSONObject screen = new JSONObject();
+        screen.put("fixed1", window);
+        return screen;
+    }
+
+    public static void main(String[] args) throws JSONException {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int lists = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int rows = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+
+        String tmplStr = makeScreen(new Random(0), entries, lists, rows, false).toString();
+        JSONObject[] updates = new JSONObject[8];
+        for (int i = 0; i < updates.length; i++) {
+            updates[i] = makeScreen(new Random(i + 1), entries, lists, rows, i % 2 == 1);
+        }
+
+        JSONObject legacy = new JSONObject(tmplStr);
+        JSONObject compiled = new JSONObject(tmplStr);
+        long st = System.nanoTime();
+        ScreenSchema schema = ScreenSchema.compile(compiled);
+        double compile = (System.nanoTime() - st) / 1e6;
+        for (JSONObject upd : updates) {
+            ScreenSchema.mergeTree(legacy, upd);
+            schema.merge(upd);
+            if (!legacy.toString().equals(compiled.toString())) {
+                System.out.println("results differ");
+                System.exit(1);
+            }
+        }
+        System.out.printf("slots:%d template:%d bytes compile:%.3fms%n", schema.size(), tmplStr.length(), compile);
+
+        for (int pass = 0; pass < 2; pass++) {
+            st = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                ScreenSchema.mergeTree(legacy, updates[i % updates.length]);
+            }
+            double tree = (System.nanoTime() - st) / 1e6 / iterations;
+            st = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                schema.merge(updates[i % updates.length]);
+            }
+            double flat = (System.nanoTime() - st) / 1e6 / iterations;
+            System.out.printf("%s recursive:%.3fms compiled:%.3fms%n", pass == 0 ? "warmup" : "merge ", tree, flat);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.montsuqi.monsiaj.tools;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import javax.swing.JTable;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.TableCellRenderer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.montsuqi.monsiaj.client.widgethandlers.WidgetHandler;
+import org.montsuqi.monsiaj.widgets.CListTableModel;
+import org.montsuqi.monsiaj.widgets.PandaCList;
+import org.montsuqi.monsiaj.widgets.PandaTable;
+
+/**
+ * <p>
+ * Measures the frames per second of scrolling through a PandaCList of 10k
+ * rows and a PandaTable, painting the viewport into an offscreen image with
+ * the default renderer and with the table's own renderer.</p>
+ * <p>
+ * usage: ScrollBench [rows] [frames]</p>
+ */
+public class ScrollBench {
+
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 400;
+    private static final int COLUMNS = 10;
+    private static final String[] COLORS = {"", "#FFE0E0", "#E0FFE0", "#E0E0FF"};
+
+    private static PandaCList makeCList(int rows) throws JSONException {
+        PandaCList clist = new PandaCList();
+        clist.setModel(new CListTableModel(COLUMNS));
+        JSONArray items = new JSONArray();
+        JSONArray bgcolor = new JSONArray();
+        JSONArray select = new JSONArray();
+        for (int r = 0; r < rows; r++) {
+            JSONObject item = new JSONObject();
+            for (int c = 1; c <= COLUMNS; c++) {
+                item.put("column" + c, "cell" + r + "-" + c + " 患者名カナ");
+            }
+            items.put(item);
+            bgcolor.put(COLORS[r % COLORS.length]);
+            select.put(r % 7 == 0);
+        }
+        JSONObject obj = new JSONObject();
+        obj.put("count", rows);
+        obj.put("item", items);
+        obj.put("bgcolor", bgcolor);
+        obj.put("selectdata", select);
+        WidgetHandler.getHandler(PandaCList.class).set(null, clist, obj, new HashMap());
+        return clist;
+    }
+
+    private static PandaTable makeTable(int rows) {
+        PandaTable table = new PandaTable();
+        table.setColumns(COLUMNS);
+        table.setRows(rows);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < COLUMNS; c++) {
+                table.setCell(r, c, "cell" + r + "-" + c);
+                table.setBGColor(r, c, COLORS[(r + c) % COLORS.length]);
+            }
+        }
+        return table;
+    }
+
+    private static double fps(JTable table, int frames) {
+        table.setSize(table.getPreferredSize().width < WIDTH ? WIDTH : table.getPreferredSize().width,
+                table.getRowHeight() * table.getRowCount());
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        int max = table.getHeight() - HEIGHT;
+        int step = table.getRowHeight() * 3;
+        long st = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            int y = (i * step) % max;
+            Graphics2D g = image.createGraphics();
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, WIDTH, HEIGHT);
+            g.translate(0, -y);
+            g.setClip(new Rectangle(0, y, WIDTH, HEIGHT));
+            table.paint(g);
+            g.dispose();
+        }
+        return frames / ((System.nanoTime() - st) / 1e9);
+    }
+
+    public static void main(String[] args) throws JSONException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        PandaCList clist = makeCList(rows);
+        PandaTable table = makeTable(Math.min(rows, 1000));
+        String[] names = {"clist", "table"};
+        JTable[] tables = {clist, table};
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < tables.length; i++) {
+                JTable t = tables[i];
+                TableCellRenderer own = t.getDefaultRenderer(Object.class);
+                t.setDefaultRenderer(Object.class, new DefaultTableCellRenderer());
+                double plain = fps(t, frames);
+                t.setDefaultRenderer(Object.class, own);
+                double fast = fps(t, frames);
+                System.out.printf("%s %s rows:%d default:%.0ffps own:%.0ffps%n",
+                        pass == 0 ? "warmup" : "scroll", names[i], t.getRowCount(), plain, fast);
+            }
+        }
+    }
+}
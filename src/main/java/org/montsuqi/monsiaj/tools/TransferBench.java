@@ -0,0 +1,81 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.montsuqi.monsiaj.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import org.montsuqi.monsiaj.util.StreamTransfer;
+
+/**
+ * <p>
+ * Compares the throughput of the former byte-at-a-time body copy with
+ * StreamTransfer for 1KB, 1MB and 50MB bodies.</p>
+ * <p>
+ * usage: TransferBench [seconds per case]</p>
+ */
+public class TransferBench {
+
+    private static final int[] SIZES = {1024, 1024 * 1024, 50 * 1024 * 1024};
+
+    private interface Copy {
+
+        long run(InputStream in) throws IOException;
+    }
+
+    private static long byteCopy(InputStream in, OutputStream out) throws IOException {
+        long total = 0;
+        try (BufferedInputStream bis = new BufferedInputStream(in);
+                BufferedOutputStream bos = new BufferedOutputStream(out)) {
+            int b;
+            while ((b = bis.read()) != -1) {
+                bos.write(b);
+                total++;
+            }
+        }
+        return total;
+    }
+
+    private static void measure(String label, byte[] data, long millis, Copy copy) throws IOException {
+        // warmup
+        copy.run(new ByteArrayInputStream(data));
+        long bytes = 0;
+        int count = 0;
+        long st = System.nanoTime();
+        long end = st + millis * 1000000L;
+        do {
+            bytes += copy.run(new ByteArrayInputStream(data));
+            count++;
+        } while (System.nanoTime() < end);
+        double sec = (System.nanoTime() - st) / 1e9;
+        System.out.printf("%-14s %10d bytes %6d runs %10.1f MB/s%n", label, data.length, count, bytes / sec / (1024 * 1024));
+    }
+
+    public static void main(String[] args) {
+        long millis = (args.length > 0 ? Long.parseLong(args[0]) : 3) * 1000;
+        Random random = new Random(0);
+        try {
+            final File file = File.createTempFile("transferbench", ".bin");
+            file.deleteOnExit();
+            for (int size : SIZES) {
+                byte[] data = new byte[size];
+                random.nextBytes(data);
+                measure("byte/memory", data, millis, (InputStream in) -> byteCopy(in, new ByteArrayOutputStream()));
+                measure("bulk/memory", data, millis, (InputStream in) -> StreamTransfer.readAll(in, size).size());
+                measure("byte/file", data, millis, (InputStream in) -> byteCopy(in, new FileOutputStream(file)));
+                measure("channel/file", data, millis, (InputStream in) -> StreamTransfer.copyToFile(in, file));
+            }
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+}
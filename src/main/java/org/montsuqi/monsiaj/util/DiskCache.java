@@ -0,0 +1,226 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <p>
+ * A size bounded LRU cache of byte arrays on disk.</p>
+ * <p>
+ * Entries are stored gzip compressed under the cache root with the SHA-256
+ * of their content, which is checked on every read. An entry which fails the
+ * check is deleted and reported as a miss. When the total size of the files
+ * under the root exceeds the budget, the least recently used files are
+ * deleted.</p>
+ */
+public class DiskCache {
+
+    private static final Logger logger = LogManager.getLogger(DiskCache.class);
+    public static final File CACHE_ROOT = new File(new File(new File(System.getProperty("user.home")), ".monsiaj"), "cache");
+    private static final int MAGIC = 0x4d434331; /* MCC1 */
+    private static final String SUFFIX = ".gz";
+
+    private final File root;
+    private final File dir;
+    private final long maxBytes;
+    private long usedBytes;
+
+    /**
+     * @param root the directory the size budget applies to.
+     * @param namespace the sub directory of root for this cache. Entries of
+     * other namespaces under the same root share the budget.
+     * @param maxBytes the size budget.
+     */
+    public DiskCache(File root, String namespace, long maxBytes) {
+        this.root = root;
+        this.dir = new File(root, namespace);
+        this.maxBytes = maxBytes;
+        this.usedBytes = -1;
+        dir.mkdirs();
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    public static String digest(byte[] data) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return toHex(md.digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String digest(String s) {
+        return digest(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder buf = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            buf.append(Character.forDigit((b >> 4) & 0xf, 16));
+            buf.append(Character.forDigit(b & 0xf, 16));
+        }
+        return buf.toString();
+    }
+
+    private File entryFile(String key) {
+        return new File(dir, digest(key) + SUFFIX);
+    }
+
+    /**
+     * <p>
+     * Returns the cached data for the key.</p>
+     *
+     * @return the data, or null if it is not cached or broken.
+     */
+    public synchronized byte[] get(String key) {
+        File file = entryFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || !key.equals(in.readUTF())) {
+                throw new IOException("invalid cache entry");
+            }
+            byte[] hash = new byte[32];
+            in.readFully(hash);
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            if (!Arrays.equals(hash, MessageDigest.getInstance("SHA-256").digest(data))) {
+                throw new IOException("cache entry digest mismatch");
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return data;
+        } catch (IOException | NoSuchAlgorithmException e) {
+            logger.info("drop cache entry " + file + ": " + e);
+            delete(file);
+            return null;
+        }
+    }
+
+    public synchronized void put(String key, byte[] data) {
+        File file = entryFile(key);
+        File temp = new File(dir, file.getName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp))))) {
+                out.writeInt(MAGIC);
+                out.writeUTF(key);
+                out.write(MessageDigest.getInstance("SHA-256").digest(data));
+                out.writeInt(data.length);
+                out.write(data);
+            }
+            delete(file);
+            if (!temp.renameTo(file)) {
+                throw new IOException("cannot rename " + temp);
+            }
+            if (usedBytes >= 0) {
+                usedBytes += file.length();
+            }
+        } catch (IOException | NoSuchAlgorithmException e) {
+            logger.warn("cannot write cache entry " + file + ": " + e);
+            temp.delete();
+            return;
+        }
+        evict();
+    }
+
+    public synchronized boolean contains(String key) {
+        return entryFile(key).isFile();
+    }
+
+    public synchronized void remove(String key) {
+        delete(entryFile(key));
+    }
+
+    private void delete(File file) {
+        if (!file.exists()) {
+            return;
+        }
+        long length = file.length();
+        if (file.delete() && usedBytes >= 0) {
+            usedBytes -= length;
+        }
+    }
+
+    private static void listFiles(File f, List<File> files) {
+        File[] children = f.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File c : children) {
+            if (c.isDirectory()) {
+                listFiles(c, files);
+            } else {
+                files.add(c);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Deletes the least recently used files under the root until the total
+     * size fits the budget. The tree is only walked for the first count and
+     * when the count is over the budget, where it is taken again.</p>
+     */
+    public synchronized void evict() {
+        if (usedBytes >= 0 && usedBytes <= maxBytes) {
+            return;
+        }
+        List<File> files = new ArrayList<>();
+        listFiles(root, files);
+        usedBytes = 0;
+        for (File f : files) {
+            usedBytes += f.length();
+        }
+        if (usedBytes <= maxBytes) {
+            return;
+        }
+        files.sort((File f1, File f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+        for (File f : files) {
+            if (usedBytes <= maxBytes) {
+                break;
+            }
+            delete(f);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.montsuqi.monsiaj.util;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * A process-wide cache of the colors and fonts decoded from strings.</p>
+ * <p>
+ * Each spec is decoded once, and equal values decoded from different specs
+ * share one instance. The caches stop growing at MAX_ENTRIES; specs beyond
+ * that are decoded every time.</p>
+ */
+public class InternCache {
+
+    private static final int MAX_ENTRIES = 4096;
+
+    /* cached for specs which do not decode */
+    private static final Object INVALID = new Object();
+
+    private static final ConcurrentMap<String, Object> colorSpecs = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Color, Color> colors = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Font> fontSpecs = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Font, Font> fonts = new ConcurrentHashMap<>();
+
+    private InternCache() {
+    }
+
+    /**
+     * <p>
+     * Returns the color of the spec as decoded by Color.decode, or null if
+     * it is not a color.</p>
+     */
+    public static Color color(String spec) {
+        if (spec == null) {
+            return null;
+        }
+        Object cached = colorSpecs.get(spec);
+        if (cached == null) {
+            try {
+                cached = intern(colors, Color.decode(spec));
+            } catch (NumberFormatException e) {
+                cached = INVALID;
+            }
+            if (colorSpecs.size() < MAX_ENTRIES) {
+                colorSpecs.putIfAbsent(spec, cached);
+            }
+        }
+        return cached == INVALID ? null : (Color) cached;
+    }
+
+    /**
+     * <p>
+     * Returns the font of the spec as decoded by Font.decode.</p>
+     */
+    public static Font font(String spec) {
+        if (spec == null) {
+            return Font.decode(null);
+        }
+        Font font = fontSpecs.get(spec);
+        if (font == null) {
+            font = intern(fonts, Font.decode(spec));
+            if (fontSpecs.size() < MAX_ENTRIES) {
+                fontSpecs.putIfAbsent(spec, font);
+            }
+        }
+        return font;
+    }
+
+    private static <T> T intern(ConcurrentMap<T, T> map, T value) {
+        if (map.size() >= MAX_ENTRIES) {
+            return value;
+        }
+        T prev = map.putIfAbsent(value, value);
+        return prev != null ? prev : value;
+    }
+}
@@ -0,0 +1,111 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.util;
+
+import java.util.Iterator;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * <p>
+ * 64 bit structural hashes of JSON values.</p>
+ * <p>
+ * Strings are hashed over their characters with FNV-1a, not with
+ * String.hashCode(), so that short strings seldom collide. Values of
+ * different types never hash alike on purpose(1, 1.0 and "1" differ). The
+ * members of an object are combined regardless of their order.</p>
+ */
+public class JSONFingerprint {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final long TAG_NULL = 0x6e756c6cL;
+    private static final long TAG_TRUE = 0x74727565L;
+    private static final long TAG_FALSE = 0x66616c73L;
+    private static final long TAG_INT = 0x696e7400L;
+    private static final long TAG_DOUBLE = 0x64626c00L;
+    private static final long TAG_STRING = 0x73747200L;
+    private static final long TAG_OBJECT = 0x6f626a00L;
+    private static final long TAG_ARRAY = 0x61727200L;
+
+    private JSONFingerprint() {
+    }
+
+    /* the finalizer of SplitMix64 */
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    public static long of(String s) {
+        long h = FNV_OFFSET;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    /**
+     * <p>
+     * Combines a member of an object into the hash of the object.</p>
+     */
+    public static long member(long h, String key, long value) {
+        return h + mix(of(key) * 31 + value);
+    }
+
+    public static long objectSeed(int length) {
+        return mix(TAG_OBJECT + length);
+    }
+
+    public static long of(Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            return TAG_NULL;
+        } else if (value instanceof String) {
+            return mix(TAG_STRING ^ of((String) value));
+        } else if (value instanceof Boolean) {
+            return ((Boolean) value) ? TAG_TRUE : TAG_FALSE;
+        } else if (value instanceof Integer || value instanceof Long) {
+            return mix(TAG_INT ^ ((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            return mix(TAG_DOUBLE ^ Double.doubleToLongBits(((Number) value).doubleValue()));
+        } else if (value instanceof JSONObject) {
+            JSONObject obj = (JSONObject) value;
+            long h = objectSeed(obj.length());
+            for (Iterator i = obj.keys(); i.hasNext();) {
+                String key = (String) i.next();
+                h = member(h, key, of(obj.opt(key)));
+            }
+            return h;
+        } else if (value instanceof JSONArray) {
+            JSONArray arr = (JSONArray) value;
+            long h = mix(TAG_ARRAY + arr.length());
+            for (int i = 0; i < arr.length(); i++) {
+                h = h * 31 + of(arr.opt(i));
+            }
+            return mix(h);
+        }
+        return mix(TAG_STRING ^ of(value.toString()));
+    }
+}
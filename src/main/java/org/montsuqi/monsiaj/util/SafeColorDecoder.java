@@ -12,11 +12,6 @@ import java.awt.Color;
  */
 public class SafeColorDecoder {
     public static Color decode(String str) {
-        try {
-            return Color.decode(str);
-        } catch (NumberFormatException e) {
-            //e.printStackTrace();
-        }
-        return null;
+        return InternCache.color(str);
     }
 }
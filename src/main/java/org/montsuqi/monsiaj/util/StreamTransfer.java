@@ -0,0 +1,123 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * <p>
+ * Buffer based copy of streams, used for HTTP bodies and BLOBs.</p>
+ */
+public class StreamTransfer {
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_PRESIZE = 64 * 1024 * 1024;
+
+    private StreamTransfer() {
+    }
+
+    /**
+     * <p>
+     * Copies the stream to the end.</p>
+     *
+     * @return the number of bytes copied.
+     */
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long total = 0;
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * <p>
+     * Copies the stream to the end, keeping a copy in memory as long as it
+     * does not exceed max bytes.</p>
+     *
+     * @return the bytes copied, or null if there were more than max.
+     */
+    public static byte[] copyAndCapture(InputStream in, OutputStream out, long max) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        ByteArrayOutputStream capture = new ByteArrayOutputStream(BUFFER_SIZE);
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+            if (capture != null) {
+                if (capture.size() + n > max) {
+                    capture = null;
+                } else {
+                    capture.write(buf, 0, n);
+                }
+            }
+        }
+        return capture == null ? null : capture.toByteArray();
+    }
+
+    /**
+     * <p>
+     * Reads the whole stream into memory.</p>
+     *
+     * @param sizeHint expected size such as Content-Length, or -1 if unknown.
+     */
+    public static ByteArrayOutputStream readAll(InputStream in, long sizeHint) throws IOException {
+        int initial = BUFFER_SIZE;
+        if (sizeHint > 0) {
+            initial = (int) Math.min(sizeHint, MAX_PRESIZE);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(initial);
+        copy(in, bytes);
+        return bytes;
+    }
+
+    /**
+     * <p>
+     * Streams the input straight into the file through its channel.</p>
+     *
+     * @return the number of bytes written.
+     */
+    public static long copyToFile(InputStream in, File file) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(file);
+                FileChannel channel = fos.getChannel()) {
+            ReadableByteChannel src = Channels.newChannel(in);
+            long pos = 0;
+            long n;
+            /* the source channel blocks, so 0 is returned only at the end */
+            while ((n = channel.transferFrom(src, pos, BUFFER_SIZE)) > 0) {
+                pos += n;
+            }
+            return pos;
+        }
+    }
+}
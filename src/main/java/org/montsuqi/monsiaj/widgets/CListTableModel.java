@@ -0,0 +1,147 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.widgets;
+
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * <p>
+ * A read-only table model for PandaCList which holds the cells column by
+ * column in String arrays.</p>
+ * <p>
+ * The whole list is replaced at once: the caller fills the arrays returned by
+ * beginLoad and calls endLoad, which swaps them in and fires a single
+ * tableDataChanged if any cell differs.</p>
+ * <p>
+ * For very large lists the model can instead read the cells lazily from a
+ * RowSource, so that only the rows painted are ever looked at.</p>
+ */
+public class CListTableModel extends AbstractTableModel {
+
+    /**
+     * <p>
+     * Supplies the cells of a virtual list on demand.</p>
+     */
+    public interface RowSource {
+
+        String getValue(int row, int column);
+    }
+
+    private final int columns;
+    private RowSource source;
+    private String[][] data;
+    private String[][] loading;
+    private int rows;
+
+    public CListTableModel(int columns) {
+        this.columns = columns;
+        data = new String[columns][0];
+        loading = new String[columns][0];
+        rows = 0;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (source != null) {
+            return source.getValue(row, column);
+        }
+        return data[column][row];
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+
+    /**
+     * <p>
+     * Returns the arrays, indexed by column then row, to be filled with the
+     * first rows of the new list.</p>
+     */
+    public String[][] beginLoad(int rows) {
+        for (int j = 0; j < columns; j++) {
+            if (loading[j].length < rows) {
+                loading[j] = new String[Math.max(rows, loading[j].length * 2)];
+            }
+        }
+        return loading;
+    }
+
+    /**
+     * <p>
+     * Replaces the list by the rows filled since beginLoad. Returns true if
+     * the list changed.</p>
+     */
+    public boolean endLoad(int rows) {
+        if (source == null && rows == this.rows && sameRows(rows)) {
+            return false;
+        }
+        source = null;
+        String[][] tmp = data;
+        data = loading;
+        loading = tmp;
+        this.rows = rows;
+        fireTableDataChanged();
+        return true;
+    }
+
+    /**
+     * <p>
+     * Makes the list virtual: its rows are read from the source when they
+     * are rendered, and the cell arrays are released.</p>
+     */
+    public void setSource(RowSource source, int rows) {
+        this.source = source;
+        this.rows = rows;
+        data = new String[columns][0];
+        loading = new String[columns][0];
+        fireTableDataChanged();
+    }
+
+    public boolean isVirtual() {
+        return source != null;
+    }
+
+    private boolean sameRows(int rows) {
+        for (int j = 0; j < columns; j++) {
+            String[] a = data[j];
+            String[] b = loading[j];
+            for (int i = 0; i < rows; i++) {
+                if (!a[i].equals(b[i])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,119 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.widgets;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Per-cell colors of a PandaTable, keyed by a cell index. Only the cells
+ * whose color differs from the default color are stored, in an open
+ * addressing table of int keys so that painting a cell boxes nothing.</p>
+ */
+final class CellColors {
+
+    private static final int EMPTY = -1;
+
+    private final Color defaultColor;
+    private int[] keys;
+    private Color[] colors;
+    private int size;
+
+    CellColors(Color defaultColor) {
+        this.defaultColor = defaultColor;
+        keys = new int[0];
+        colors = new Color[0];
+        size = 0;
+        clear();
+    }
+
+    void clear() {
+        if (size == 0 && keys.length > 0) {
+            return;
+        }
+        keys = new int[16];
+        Arrays.fill(keys, EMPTY);
+        colors = new Color[16];
+        size = 0;
+    }
+
+    /**
+     * <p>
+     * Returns the color of the cell, or the default color.</p>
+     */
+    Color get(int cell) {
+        Color color = colors[slot(keys, cell)];
+        return color != null ? color : defaultColor;
+    }
+
+    void set(int cell, Color color) {
+        if (color == null || color.equals(defaultColor)) {
+            color = null;
+        }
+        int i = slot(keys, cell);
+        if (keys[i] == cell) {
+            /* a reset cell keeps its slot with no color */
+            colors[i] = color;
+            return;
+        }
+        if (color == null) {
+            return;
+        }
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+            i = slot(keys, cell);
+        }
+        keys[i] = cell;
+        colors[i] = color;
+        size++;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        Color[] oldColors = colors;
+        keys = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        colors = new Color[keys.length];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldColors[i] != null) {
+                int j = slot(keys, oldKeys[i]);
+                keys[j] = oldKeys[i];
+                colors[j] = oldColors[i];
+                size++;
+            }
+        }
+    }
+
+    /* the slot of the key, or the empty slot where it would go */
+    private static int slot(int[] keys, int key) {
+        int mask = keys.length - 1;
+        int h = key * 0x9e3779b9;
+        int i = (h ^ (h >>> 16)) & mask;
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+}
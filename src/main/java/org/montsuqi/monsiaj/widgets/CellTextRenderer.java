@@ -0,0 +1,175 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.widgets;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Toolkit;
+import java.util.Map;
+import javax.swing.JComponent;
+import javax.swing.JTable;
+import javax.swing.UIManager;
+import javax.swing.border.Border;
+import javax.swing.table.TableCellRenderer;
+
+/**
+ * <p>
+ * A lightweight renderer for the text cells of PandaCList and PandaTable.</p>
+ * <p>
+ * The table sets the text and the colors already resolved for the cell by
+ * set; the text is drawn directly with metrics cached per font, and nothing
+ * is allocated per cell unless the text has to be cut with an ellipsis.</p>
+ */
+class CellTextRenderer extends JComponent implements TableCellRenderer {
+
+    private static final int INSET = 2;
+    private static final String ELLIPSIS = "...";
+
+    private final Map<?, ?> desktopHints;
+    private final Border focusBorder;
+    private String text;
+    private Color foreground;
+    private Color background;
+    private boolean focused;
+    private Font metricsFont;
+    private FontMetrics metrics;
+    private char[] chars;
+
+    CellTextRenderer() {
+        desktopHints = (Map<?, ?>) Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+        focusBorder = UIManager.getBorder("Table.focusCellHighlightBorder");
+        chars = new char[64];
+        setOpaque(true);
+    }
+
+    /**
+     * <p>
+     * Sets the cell to be painted next.</p>
+     */
+    void set(Object value, Font font, Color foreground, Color background, boolean focused) {
+        this.text = value == null ? "" : value.toString();
+        this.foreground = foreground;
+        this.background = background;
+        this.focused = focused;
+        if (font != metricsFont) {
+            metricsFont = font;
+            metrics = getFontMetrics(font);
+        }
+    }
+
+    @Override
+    public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
+        set(value, table.getFont(), table.getForeground(), table.getBackground(), hasFocus);
+        return this;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        int width = getWidth();
+        int height = getHeight();
+        if (background != null) {
+            g.setColor(background);
+            g.fillRect(0, 0, width, height);
+        }
+        if (!text.isEmpty()) {
+            if (desktopHints != null && g instanceof Graphics2D) {
+                ((Graphics2D) g).addRenderingHints(desktopHints);
+            }
+            g.setFont(metricsFont);
+            g.setColor(foreground);
+            int y = (height - metrics.getHeight()) / 2 + metrics.getAscent();
+            int room = width - INSET * 2;
+            if (metrics.stringWidth(text) <= room) {
+                g.drawString(text, INSET, y);
+            } else {
+                drawCut(g, room, y);
+            }
+        }
+        if (focused && focusBorder != null) {
+            focusBorder.paintBorder(this, g, 0, 0, width, height);
+        }
+    }
+
+    private void drawCut(Graphics g, int room, int y) {
+        int n = text.length();
+        if (chars.length < n) {
+            chars = new char[Math.max(n, chars.length * 2)];
+        }
+        text.getChars(0, n, chars, 0);
+        int limit = room - metrics.stringWidth(ELLIPSIS);
+        int w = 0;
+        int i = 0;
+        while (i < n) {
+            int cw = metrics.charWidth(chars[i]);
+            if (w + cw > limit) {
+                break;
+            }
+            w += cw;
+            i++;
+        }
+        g.drawChars(chars, 0, i, INSET, y);
+        g.drawString(ELLIPSIS, INSET + w, y);
+    }
+
+    /*
+     * The following are overridden for performance reasons, as in
+     * DefaultTableCellRenderer.
+     */
+    @Override
+    public void invalidate() {
+    }
+
+    @Override
+    public void validate() {
+    }
+
+    @Override
+    public void revalidate() {
+    }
+
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+    }
+
+    @Override
+    public void repaint(Rectangle r) {
+    }
+
+    @Override
+    public void repaint() {
+    }
+
+    @Override
+    protected void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
+    }
+
+    @Override
+    public void firePropertyChange(String propertyName, boolean oldValue, boolean newValue) {
+    }
+}
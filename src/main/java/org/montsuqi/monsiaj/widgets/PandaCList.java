@@ -33,6 +33,9 @@ import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
 import javax.swing.*;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
@@ -51,9 +54,10 @@ public class PandaCList extends JTable {
     public static final int SELECTION_MODE_SINGLE = 1;
     public static final int SELECTION_MODE_MULTI = 2;
 
-    private Color[] bgColors;
-    private Color[] fgColors;
-    private boolean[] selection;
+    private RowColors bgColors;
+    private RowColors fgColors;
+    private final BitSet selection;
+    private int selectionLength;
     private int mode;
 
     /* mouse selection */
@@ -65,6 +69,10 @@ public class PandaCList extends JTable {
     private Color selectionBGColor;
     private Color selectionFGColor;
 
+    private final CellTextRenderer cellRenderer;
+    /* row colors darkened for the lead row */
+    private final Map<Color, Color> darkened;
+
     public void addChangeListener(ChangeListener l) {
         listenerList.add(ChangeListener.class, l);
     }
@@ -81,24 +89,67 @@ public class PandaCList extends JTable {
         this.mode = mode;
     }
 
-    public void setBGColors(Color[] bgColors) {
+    public void setBGColors(RowColors bgColors) {
         this.bgColors = bgColors;
     }
 
-    public void setFGColors(Color[] fgColors) {
+    public RowColors getBGColors() {
+        return this.bgColors;
+    }
+
+    public void setFGColors(RowColors fgColors) {
         this.fgColors = fgColors;
     }
 
+    public RowColors getFGColors() {
+        return this.fgColors;
+    }
+
     public void setSelection(boolean[] s) {
-        this.selection = s;
+        selection.clear();
+        for (int i = 0; i < s.length; i++) {
+            selection.set(i, s[i]);
+        }
+        selectionLength = s.length;
     }
 
     public boolean[] getSelection() {
+        boolean[] s = new boolean[selectionLength];
+        for (int i = selection.nextSetBit(0); i >= 0 && i < selectionLength; i = selection.nextSetBit(i + 1)) {
+            s[i] = true;
+        }
+        return s;
+    }
+
+    /**
+     * <p>
+     * Sets the selection of the first length rows.</p>
+     */
+    public void setSelection(BitSet s, int length) {
+        selection.clear();
+        selection.or(s);
+        selectionLength = length;
+    }
+
+    public BitSet getSelectionBits() {
         return this.selection;
     }
 
+    public int getSelectionLength() {
+        return this.selectionLength;
+    }
+
+    public boolean isSelected(int row) {
+        return selection.get(row);
+    }
+
     public PandaCList() {
         super();
+        selection = new BitSet();
+        selectionLength = 0;
+        cellRenderer = new CellTextRenderer();
+        darkened = new HashMap<>();
+        setDefaultRenderer(Object.class, cellRenderer);
         setFocusable(true);
         setAutoResizeMode(AUTO_RESIZE_OFF);
         setAutoscrolls(true);
@@ -143,7 +194,7 @@ public class PandaCList extends JTable {
                 }
                 msStartRow = row;
                 msPrevRow = row;
-                msValue = !selection[row];
+                msValue = !selection.get(row);
             }
 
             @Override
@@ -192,7 +243,7 @@ public class PandaCList extends JTable {
                     return;
                 }
                 if (row == msStartRow) {
-                    selection[row] = msValue;
+                    selection.set(row, msValue);
                     return;
                 }
                 if (row == msPrevRow) {
@@ -204,15 +255,15 @@ public class PandaCList extends JTable {
 
                 if (row > msStartRow) {
                     if (row > prev) {
-                        selection[row] = msValue;
+                        selection.set(row, msValue);
                     } else {
-                        selection[prev] = !msValue;
+                        selection.set(prev, !msValue);
                     }
                 } else {
                     if (row < prev) {
-                        selection[row] = msValue;
+                        selection.set(row, msValue);
                     } else {
-                        selection[prev] = !msValue;
+                        selection.set(prev, !msValue);
                     }
                 }
                 PandaCList.this.resizeAndRepaint();
@@ -225,12 +276,13 @@ public class PandaCList extends JTable {
     }
 
     public void toggleSelection(int row) {
-        selection[row] = !selection[row];
+        selection.flip(row);
     }
 
     public void singleSelection(int row) {
-        for (int i = 0; i < selection.length; i++) {
-            selection[i] = i == row;
+        selection.clear();
+        if (row >= 0 && row < selectionLength) {
+            selection.set(row);
         }
     }
 
@@ -268,35 +320,49 @@ public class PandaCList extends JTable {
     public Component prepareRenderer(
             TableCellRenderer renderer, int row, int column) {
 
-        Component c = super.prepareRenderer(renderer, row, column);
-        if (fgColors != null && row < fgColors.length && fgColors[row] != null) {
-            c.setForeground(fgColors[row]);
-        } else {
-            c.setForeground(Color.BLACK);
+        Color fg = fgColors != null ? fgColors.get(row) : null;
+        Color bg = bgColors != null ? bgColors.get(row) : null;
+        if (fg == null) {
+            fg = Color.BLACK;
         }
-        if (selection[row]) {
-            c.setBackground(this.selectionBGColor);
-            c.setForeground(this.selectionFGColor);
-        } else {
-            if (bgColors != null && row < bgColors.length && bgColors[row] != null) {
-                if (this.isRowSelected(row)) {
-                    int r = bgColors[row].getRed();
-                    int g = bgColors[row].getGreen();
-                    int b = bgColors[row].getBlue();
-                    r = r - 0x30 < 0 ? 0 : r - 0x30;
-                    g = g - 0x30 < 0 ? 0 : g - 0x30;
-                    b = b - 0x30 < 0 ? 0 : b - 0x30;
-                    c.setBackground(new Color(r, g, b));
-                } else {
-                    c.setBackground(bgColors[row]);
-                }
-            } else {
-                c.setBackground(Color.white);
+        if (selection.get(row)) {
+            bg = this.selectionBGColor;
+            fg = this.selectionFGColor;
+        } else if (bg != null) {
+            if (this.isRowSelected(row)) {
+                bg = darken(bg);
             }
+        } else {
+            bg = Color.white;
+        }
+        if (renderer == cellRenderer) {
+            boolean focused = isFocusOwner()
+                    && selectionModel.getLeadSelectionIndex() == row
+                    && columnModel.getSelectionModel().getLeadSelectionIndex() == column;
+            cellRenderer.set(getValueAt(row, column), getFont(), fg, bg, focused);
+            return cellRenderer;
         }
+        Component c = super.prepareRenderer(renderer, row, column);
+        c.setForeground(fg);
+        c.setBackground(bg);
         return c;
     }
 
+    private Color darken(Color color) {
+        Color dark = darkened.get(color);
+        if (dark == null) {
+            int r = color.getRed();
+            int g = color.getGreen();
+            int b = color.getBlue();
+            r = r - 0x30 < 0 ? 0 : r - 0x30;
+            g = g - 0x30 < 0 ? 0 : g - 0x30;
+            b = b - 0x30 < 0 ? 0 : b - 0x30;
+            dark = new Color(r, g, b);
+            darkened.put(color, dark);
+        }
+        return dark;
+    }
+
     @Override
     public void createDefaultColumnsFromModel() {
         TableColumnModel model = getColumnModel();
@@ -12,6 +12,7 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.im.InputContext;
 import java.awt.im.InputSubset;
+import java.util.BitSet;
 import java.util.Locale;
 import javax.swing.*;
 import javax.swing.event.TableModelEvent;
@@ -110,8 +111,13 @@ public class PandaTable extends JTable {
 
     private final int MAX_COLS = 100;
 
-    private Color[][] fgColors;
-    private Color[][] bgColors;
+    /* cell colors other than black on white, keyed by cellIndex of the
+       model column */
+    private final CellColors fgColors;
+    private final CellColors bgColors;
+    /* cells edited by the user since the last clearDirty, keyed likewise */
+    private final BitSet dirtyCells;
+    private final CellTextRenderer cellRenderer;
     private final PandaTableModel model;
     private boolean enterPressed;
     private int changedRow;
@@ -158,6 +164,10 @@ public class PandaTable extends JTable {
     }
 
     public PandaTable() {
+        fgColors = new CellColors(Color.BLACK);
+        bgColors = new CellColors(Color.WHITE);
+        dirtyCells = new BitSet();
+        cellRenderer = new CellTextRenderer();
         this.setRowSelectionAllowed(false);
         JTableHeader header = this.getTableHeader();
         header.setVisible(true);
@@ -165,6 +175,7 @@ public class PandaTable extends JTable {
 
         model = new PandaTableModel();
         this.setModel(model);
+        this.setDefaultRenderer(Object.class, cellRenderer);
 
         /*
          * magic number
@@ -307,15 +318,9 @@ public class PandaTable extends JTable {
 
     public void setRows(int rows) {
         model.setRows(rows);
-        int columns = model.getColumnCount();
-        fgColors = new Color[rows][columns];
-        bgColors = new Color[rows][columns];
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < columns; j++) {
-                fgColors[i][j] = Color.BLACK;
-                bgColors[i][j] = Color.WHITE;
-            }
-        }
+        fgColors.clear();
+        bgColors.clear();
+        dirtyCells.clear();
     }
 
     public int getColumns() {
@@ -324,15 +329,9 @@ public class PandaTable extends JTable {
 
     public void setColumns(int cols) {
         model.setColumns(cols);
-        int rows = model.getRowCount();
-        fgColors = new Color[rows][cols];
-        bgColors = new Color[rows][cols];
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                fgColors[i][j] = Color.BLACK;
-                bgColors[i][j] = Color.WHITE;
-            }
-        }
+        fgColors.clear();
+        bgColors.clear();
+        dirtyCells.clear();
     }
 
     public void setTitles(String[] titles) {
@@ -348,47 +347,94 @@ public class PandaTable extends JTable {
     }
 
     public void setFGColor(int row, int column, String _color) {
-        if (0 <= row && row < model.getRowCount()
-                && 0 <= column && column < model.getColumnCount()) {
-            Color color = SafeColorDecoder.decode(_color);
-            fgColors[row][column] = color != null ? color : Color.BLACK;
-        }
+        setCellColor(fgColors, row, column, _color);
     }
 
     public void setBGColor(int row, int column, String _color) {
+        setCellColor(bgColors, row, column, _color);
+    }
+
+    /**
+     * <p>
+     * Sets the color of a cell, the column being a model column.</p>
+     */
+    private void setCellColor(CellColors colors, int row, int column, String _color) {
         if (0 <= row && row < model.getRowCount()
                 && 0 <= column && column < model.getColumnCount()) {
-            Color color = SafeColorDecoder.decode(_color);
-            bgColors[row][column] = color != null ? color : Color.WHITE;
+            colors.set(cellIndex(row, column), SafeColorDecoder.decode(_color));
         }
     }
 
+    /**
+     * <p>
+     * Returns the color of a cell, the column being a view column.</p>
+     */
+    private Color getCellColor(CellColors colors, int row, int column) {
+        return colors.get(cellIndex(row, convertColumnIndexToModel(column)));
+    }
+
+    private int cellIndex(int row, int column) {
+        return row * MAX_COLS + column;
+    }
+
     public void setCell(int row, int col, String data) {
         model.setValueAt(data, row, col);
     }
 
+    /**
+     * <p>
+     * Sets a value entered by the user, and marks the cell dirty. The cell is
+     * marked first since cell_edited sends the event from the model
+     * listener.</p>
+     */
+    @Override
+    public void setValueAt(Object aValue, int row, int column) {
+        dirtyCells.set(cellIndex(row, convertColumnIndexToModel(column)));
+        super.setValueAt(aValue, row, column);
+    }
+
+    public boolean isCellDirty(int row, int column) {
+        return dirtyCells.get(cellIndex(row, column));
+    }
+
+    /**
+     * <p>
+     * Returns the last row having a dirty cell, or -1.</p>
+     */
+    public int getLastDirtyRow() {
+        if (dirtyCells.isEmpty()) {
+            return -1;
+        }
+        return (dirtyCells.length() - 1) / MAX_COLS;
+    }
+
+    public void clearDirty() {
+        dirtyCells.clear();
+    }
+
     @Override
     public Component prepareEditor(TableCellEditor editor, int row, int column) {
         Component c = super.prepareEditor(editor,row,column);
-        if (fgColors != null) {
-            c.setForeground(fgColors[row][column]);
-        }
-        if (bgColors != null) {
-            c.setBackground(bgColors[row][column]);
-        }
+        c.setForeground(getCellColor(fgColors, row, column));
+        c.setBackground(getCellColor(bgColors, row, column));
         return c;
     }
 
     @Override
     public Component prepareRenderer(
             TableCellRenderer renderer, int row, int column) {
-        Component c = super.prepareRenderer(renderer, row, column);
-        if (fgColors != null) {
-            c.setForeground(fgColors[row][column]);
-        }
-        if (bgColors != null) {
-            c.setBackground(bgColors[row][column]);
+        if (renderer == cellRenderer) {
+            boolean focused = isFocusOwner()
+                    && selectionModel.getLeadSelectionIndex() == row
+                    && columnModel.getSelectionModel().getLeadSelectionIndex() == column;
+            cellRenderer.set(getValueAt(row, column), getFont(),
+                    getCellColor(fgColors, row, column),
+                    getCellColor(bgColors, row, column), focused);
+            return cellRenderer;
         }
+        Component c = super.prepareRenderer(renderer, row, column);
+        c.setForeground(getCellColor(fgColors, row, column));
+        c.setBackground(getCellColor(bgColors, row, column));
         return c;
     }
 
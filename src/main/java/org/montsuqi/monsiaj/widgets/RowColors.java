@@ -0,0 +1,105 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.widgets;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Per-row colors of a PandaCList for the first length rows. Only the rows
+ * whose color differs from the default color are stored.</p>
+ * <p>
+ * Rows must be added in ascending order.</p>
+ */
+public final class RowColors {
+
+    private final Color defaultColor;
+    private final int length;
+    private int[] rows;
+    private Color[] colors;
+    private int size;
+
+    public RowColors(Color defaultColor, int length) {
+        this.defaultColor = defaultColor;
+        this.length = length;
+        rows = new int[8];
+        colors = new Color[8];
+        size = 0;
+    }
+
+    public void add(int row, Color color) {
+        if (color == null || color.equals(defaultColor)) {
+            return;
+        }
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+            colors = Arrays.copyOf(colors, size * 2);
+        }
+        rows[size] = row;
+        colors[size] = color;
+        size++;
+    }
+
+    /**
+     * <p>
+     * Returns the color of the row, or null if the row is out of range.</p>
+     */
+    public Color get(int row) {
+        if (row < 0 || row >= length) {
+            return null;
+        }
+        int i = Arrays.binarySearch(rows, 0, size, row);
+        return i >= 0 ? colors[i] : defaultColor;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof RowColors)) {
+            return false;
+        }
+        RowColors other = (RowColors) o;
+        if (length != other.length || size != other.size || !defaultColor.equals(other.defaultColor)) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (rows[i] != other.rows[i] || !colors[i].equals(other.colors[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = length * 31 + defaultColor.hashCode();
+        for (int i = 0; i < size; i++) {
+            h = (h * 31 + rows[i]) * 31 + colors[i].hashCode();
+        }
+        return h;
+    }
+}